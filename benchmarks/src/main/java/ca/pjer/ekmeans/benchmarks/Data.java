@@ -0,0 +1,52 @@
+package ca.pjer.ekmeans.benchmarks;
+
+import ca.pjer.ekmeans.CsvLoader;
+import ca.pjer.ekmeans.DoubleEKmeans;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public class Data {
+
+    public static final String CSV = System.getProperty("ekmeans.csv", "../McDonald's Europe.csv");
+
+    private Data() {
+    }
+
+    public static double[][] synthetic(int n, int dimension, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[n][dimension];
+        for (double[] point : points) {
+            for (int d = 0; d < dimension; d++) {
+                point[d] = random.nextDouble();
+            }
+        }
+        return points;
+    }
+
+    public static double[][] mcdonalds() throws IOException {
+        return new CsvLoader(new int[]{0, 1}, false).load(new File(CSV)).toArray();
+    }
+
+    public static double[][] copy(double[][] array) {
+        double[][] copy = new double[array.length][];
+        for (int i = 0; i < array.length; i++) {
+            copy[i] = array[i].clone();
+        }
+        return copy;
+    }
+
+    public static DoubleEKmeans.DoubleDistanceFunction distance(String name) {
+        if ("EUCLIDEAN".equals(name)) {
+            return DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION;
+        }
+        if ("SQUARED_EUCLIDEAN".equals(name)) {
+            return DoubleEKmeans.SQUARED_EUCLIDEAN_DISTANCE_FUNCTION;
+        }
+        if ("MANHATTAN".equals(name)) {
+            return DoubleEKmeans.MANHATTAN_DISTANCE_FUNCTION;
+        }
+        throw new IllegalArgumentException("unknown distance function " + name);
+    }
+}
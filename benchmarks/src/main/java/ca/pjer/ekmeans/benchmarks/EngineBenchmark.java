@@ -0,0 +1,134 @@
+package ca.pjer.ekmeans.benchmarks;
+
+import ca.pjer.ekmeans.DoubleEKmeans;
+import ca.pjer.ekmeans.DoubleSeeder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EngineBenchmark {
+
+    @State(Scope.Thread)
+    public static class Unassigned {
+
+        private PhasedDoubleEKmeans eKmeans;
+
+        @Setup(Level.Invocation)
+        public void reset(EngineBenchmark benchmark) {
+            eKmeans = benchmark.reset(eKmeans, benchmark.seeds, false);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Assigned {
+
+        private PhasedDoubleEKmeans eKmeans;
+
+        @Setup(Level.Invocation)
+        public void reset(EngineBenchmark benchmark) {
+            eKmeans = benchmark.reset(eKmeans, benchmark.seeds, true);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Emptied {
+
+        private PhasedDoubleEKmeans eKmeans;
+
+        @Setup(Level.Invocation)
+        public void reset(EngineBenchmark benchmark) {
+            eKmeans = benchmark.reset(eKmeans, benchmark.stranded, true);
+        }
+    }
+
+    @Param({"10000", "100000"})
+    public int n;
+
+    @Param({"10", "100"})
+    public int k;
+
+    @Param({"2", "16"})
+    public int dimension;
+
+    @Param({"false", "true"})
+    public boolean equal;
+
+    @Param({"EUCLIDEAN", "SQUARED_EUCLIDEAN", "MANHATTAN"})
+    public String distance;
+
+    @Param({"10"})
+    public int iteration;
+
+    private double[][] points;
+    private double[][] seeds;
+    private double[][] stranded;
+    private DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+
+    @Setup
+    public void setup() {
+        points = Data.synthetic(n, dimension, 42L);
+        doubleDistanceFunction = Data.distance(distance);
+        seeds = DoubleSeeder.kmeansPlusPlus(points, k, doubleDistanceFunction, 42L);
+        // k-means++ seeds never leave a cluster empty, so every fourth one is moved far
+        // outside the unit cube the points live in and gets nothing to fill it
+        stranded = Data.copy(seeds);
+        for (int c = 3; c < k; c += 4) {
+            for (int d = 0; d < dimension; d++) {
+                stranded[c][d] = 10d * (c + 1);
+            }
+        }
+    }
+
+    private PhasedDoubleEKmeans reset(PhasedDoubleEKmeans eKmeans, double[][] seeds, boolean assign) {
+        if (eKmeans == null) {
+            eKmeans = new PhasedDoubleEKmeans(Data.copy(seeds), points, equal, doubleDistanceFunction);
+        }
+        eKmeans.reset(seeds, assign);
+        return eKmeans;
+    }
+
+    @Benchmark
+    public int[] run() {
+        return new DoubleEKmeans(Data.copy(seeds), points, equal, doubleDistanceFunction, null).run(iteration);
+    }
+
+    @Benchmark
+    public PhasedDoubleEKmeans calculateDistances(Unassigned state) {
+        state.eKmeans.distancePhase();
+        return state.eKmeans;
+    }
+
+    @Benchmark
+    public int makeAssignments(Unassigned state) {
+        return state.eKmeans.assignmentPhase();
+    }
+
+    // only the standard engine leaves clusters empty; with equal=true this measures the scan alone
+    @Benchmark
+    public int fillEmptyCentroids(Emptied state) {
+        return state.eKmeans.fillPhase();
+    }
+
+    @Benchmark
+    public PhasedDoubleEKmeans moveCentroids(Assigned state) {
+        state.eKmeans.centerPhase();
+        return state.eKmeans;
+    }
+}
@@ -0,0 +1,66 @@
+package ca.pjer.ekmeans.benchmarks;
+
+import ca.pjer.ekmeans.BalancedDoubleEKmeans;
+import ca.pjer.ekmeans.CsvLoader;
+import ca.pjer.ekmeans.DoubleEKmeans;
+import ca.pjer.ekmeans.DoubleSeeder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class McDonaldsBenchmark {
+
+    @Param({"10", "50"})
+    public int k;
+
+    @Param({"STANDARD", "EQUAL", "BALANCED"})
+    public String mode;
+
+    @Param({"EUCLIDEAN", "SQUARED_EUCLIDEAN", "MANHATTAN"})
+    public String distance;
+
+    @Param({"10"})
+    public int iteration;
+
+    private double[][] points;
+    private double[][] seeds;
+    private DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+
+    @Setup
+    public void setup() throws IOException {
+        points = Data.mcdonalds();
+        doubleDistanceFunction = Data.distance(distance);
+        seeds = DoubleSeeder.kmeansPlusPlus(points, k, doubleDistanceFunction, 42L);
+    }
+
+    @Benchmark
+    public CsvLoader.Result load() throws IOException {
+        return new CsvLoader(new int[]{0, 1}, true).load(new File(Data.CSV));
+    }
+
+    @Benchmark
+    public int[] run() {
+        if ("BALANCED".equals(mode)) {
+            return new BalancedDoubleEKmeans(Data.copy(seeds), points, true, doubleDistanceFunction, null).run(iteration);
+        }
+        return new DoubleEKmeans(Data.copy(seeds), points, "EQUAL".equals(mode), doubleDistanceFunction, null).run(iteration);
+    }
+}
@@ -0,0 +1,41 @@
+package ca.pjer.ekmeans.benchmarks;
+
+import ca.pjer.ekmeans.DoubleEKmeans;
+
+import java.util.Arrays;
+
+public class PhasedDoubleEKmeans extends DoubleEKmeans {
+
+    public PhasedDoubleEKmeans(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction) {
+        super(centroids, points, equal, doubleDistanceFunction, null);
+    }
+
+    public void reset(double[][] seeds, boolean assign) {
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(seeds[c], 0, centroids[c], 0, seeds[c].length);
+        }
+        bind(centroids, points, k, n);
+        calculateDistances();
+        if (assign) {
+            makeAssignments();
+        }
+    }
+
+    public void distancePhase() {
+        Arrays.fill(changed, true);
+        calculateDistances();
+    }
+
+    public int assignmentPhase() {
+        return makeAssignments();
+    }
+
+    public int fillPhase() {
+        return fillEmptyCentroids();
+    }
+
+    public void centerPhase() {
+        Arrays.fill(changed, true);
+        moveCentroids();
+    }
+}
@@ -20,6 +20,7 @@
 package ca.pjer.ekmeans;
 
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class AbstractEKmeans<Centroid, Point> {
 
@@ -29,6 +30,91 @@ public class AbstractEKmeans<Centroid, Point> {
 
     }
 
+    public interface MetricsListener extends Listener {
+
+        void metrics(Metrics metrics);
+
+    }
+
+    public static class Metrics {
+
+        protected int iteration;
+        protected int move;
+        protected long distanceTime;
+        protected long assignmentTime;
+        protected long remakeTime;
+        protected long fillTime;
+        protected long centerTime;
+        protected long evaluations;
+        protected double inertia;
+        protected double maxShift;
+        protected int minCount;
+        protected int maxCount;
+
+        protected void reset(int iteration) {
+            this.iteration = iteration;
+            move = 0;
+            distanceTime = 0;
+            assignmentTime = 0;
+            remakeTime = 0;
+            fillTime = 0;
+            centerTime = 0;
+            evaluations = 0;
+            inertia = 0;
+            maxShift = Double.NaN;
+            minCount = 0;
+            maxCount = 0;
+        }
+
+        public int getIteration() {
+            return iteration;
+        }
+
+        public int getMove() {
+            return move;
+        }
+
+        public long getDistanceTime() {
+            return distanceTime;
+        }
+
+        public long getAssignmentTime() {
+            return assignmentTime;
+        }
+
+        public long getRemakeTime() {
+            return remakeTime;
+        }
+
+        public long getFillTime() {
+            return fillTime;
+        }
+
+        public long getCenterTime() {
+            return centerTime;
+        }
+
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        public double getInertia() {
+            return inertia;
+        }
+
+        public double getMaxShift() {
+            return maxShift;
+        }
+
+        public int getMinCount() {
+            return minCount;
+        }
+
+        public int getMaxCount() {
+            return maxCount;
+        }
+    }
+
     public interface DistanceFunction<Centroid, Point> {
 
         void distance(boolean[] changed, double[][] distances, Centroid[] centroids, Point[] points);
@@ -41,87 +127,433 @@ public class AbstractEKmeans<Centroid, Point> {
 
     }
 
-    protected final Centroid[] centroids;
-    protected final Point[] points;
+    public interface WeightedCenterFunction<Centroid, Point> extends CenterFunction<Centroid, Point> {
+
+        void center(boolean[] changed, int[] assignments, int[] weights, Centroid[] centroids, Point[] points);
+
+    }
+
+    protected Centroid[] centroids;
+    protected Point[] points;
     protected final boolean equal;
+    protected final boolean table;
     protected final DistanceFunction<Centroid, Point> distanceFunction;
     protected final CenterFunction<Centroid, Point> centerFunction;
     protected final Listener listener;
 
-    protected final int idealCount;
-    protected final double[][] distances;
-    protected final int[] assignments;
-    protected final boolean[] changed;
-    protected final int[] counts;
-    protected final boolean[] done;
+    protected int k;
+    protected int n;
+    protected int idealCount;
+    protected int[] weights;
+    protected double[][] distances;
+    protected int[] assignments;
+    protected boolean[] changed;
+    protected int[] counts;
+    protected boolean[] done;
+    protected final Metrics metrics;
+
+    protected int[] firsts;
+    protected double[] firstDistances;
+    protected int[] seconds;
+    protected double[] secondDistances;
+    protected int[] passes;
+    protected int pass;
+
+    protected double tolerance;
+    protected double shiftTolerance;
+    protected double moveTolerance;
+    protected long timeout;
+    protected volatile boolean cancelled;
+    protected boolean stoppedByCancel;
+    protected int[] best;
+    protected double[] costs;
+    protected boolean measuring;
 
     public AbstractEKmeans(Centroid[] centroids, Point[] points, boolean equal, DistanceFunction<Centroid, Point> distanceFunction, CenterFunction<Centroid, Point> centerFunction, Listener listener) {
-        this.centroids = centroids;
-        this.points = points;
+        this(centroids, points, centroids.length, points.length, equal, true, distanceFunction, centerFunction, listener);
+    }
+
+    protected AbstractEKmeans(Centroid[] centroids, Point[] points, boolean equal, boolean table, DistanceFunction<Centroid, Point> distanceFunction, CenterFunction<Centroid, Point> centerFunction, Listener listener) {
+        this(centroids, points, centroids.length, points.length, equal, table, distanceFunction, centerFunction, listener);
+    }
+
+    protected AbstractEKmeans(int k, int n, boolean equal, Listener listener) {
+        this(null, null, k, n, equal, true, null, null, listener);
+    }
+
+    protected AbstractEKmeans(int k, int n, boolean equal, boolean table, Listener listener) {
+        this(null, null, k, n, equal, table, null, null, listener);
+    }
+
+    private AbstractEKmeans(Centroid[] centroids, Point[] points, int k, int n, boolean equal, boolean table, DistanceFunction<Centroid, Point> distanceFunction, CenterFunction<Centroid, Point> centerFunction, Listener listener) {
         this.distanceFunction = distanceFunction;
         this.centerFunction = centerFunction;
-        if (centroids.length > 0) {
-            idealCount = points.length / centroids.length;
+        this.equal = equal;
+        this.table = table;
+        this.listener = listener;
+        metrics = listener instanceof MetricsListener ? new Metrics() : null;
+        bind(centroids, points, k, n);
+    }
+
+    protected void bind(Centroid[] centroids, Point[] points, int k, int n) {
+        this.centroids = centroids;
+        this.points = points;
+        this.k = k;
+        this.n = n;
+        this.weights = null;
+        if (k > 0) {
+            idealCount = n / k;
         } else {
             idealCount = 0;
         }
-        distances = new double[centroids.length][points.length];
-        assignments = new int[points.length];
-        Arrays.fill(assignments, -1);
-        changed = new boolean[centroids.length];
-        Arrays.fill(changed, true);
-        counts = new int[centroids.length];
-        done = new boolean[centroids.length];
-        this.equal = equal;
-        this.listener = listener;
+        if (table && usesDistanceTable() && (distances == null || distances.length < k || (k > 0 && distances[0].length < n))) {
+            int rows = Math.max(k, distances != null ? distances.length : 0);
+            int columns = Math.max(n, distances != null && distances.length > 0 ? distances[0].length : 0);
+            distances = new double[rows][columns];
+        }
+        if (!table && equal && usesNearestCaches() && (passes == null || passes.length < n)) {
+            firsts = new int[n];
+            firstDistances = new double[n];
+            seconds = new int[n];
+            secondDistances = new double[n];
+            passes = new int[n];
+        }
+        if (assignments == null || assignments.length < n) {
+            assignments = new int[n];
+        }
+        Arrays.fill(assignments, 0, n, -1);
+        if (changed == null || changed.length < k) {
+            changed = new boolean[k];
+            counts = new int[k];
+            done = new boolean[k];
+        }
+        Arrays.fill(changed, 0, k, true);
+        Arrays.fill(counts, 0);
+        Arrays.fill(done, false);
+        cancelled = false;
+        stoppedByCancel = false;
+    }
+
+    // bind() runs from the constructor, so overrides must not read subclass fields
+    protected boolean usesDistanceTable() {
+        return true;
+    }
+
+    protected boolean usesNearestCaches() {
+        return true;
     }
 
     public int[] run() {
         return run(128);
     }
 
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setShiftTolerance(double shiftTolerance) {
+        this.shiftTolerance = shiftTolerance;
+    }
+
+    public void setMoveTolerance(double moveTolerance) {
+        this.moveTolerance = moveTolerance;
+    }
+
+    public void setWeights(int[] weights) {
+        this.weights = weights;
+        long total = 0;
+        for (int p = 0; p < n; p++) {
+            total += weight(p);
+        }
+        idealCount = k > 0 ? (int) (total / k) : 0;
+    }
+
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeout = unit.toNanos(timeout);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // true while a cancel is pending, and after a run that ended with one until the next run
+    public boolean isCancelled() {
+        return cancelled || stoppedByCancel;
+    }
+
     public int[] run(int iteration) {
-        calculateDistances();
-        int move = makeAssignments();
+        stoppedByCancel = false;
+        long deadline = timeout > 0 ? System.nanoTime() + timeout : 0;
+        boolean keep = deadline != 0;
+        measuring = metrics != null || tolerance > 0 || keep;
+        if (measuring && (costs == null || costs.length < n)) {
+            costs = new double[n];
+        }
+        if (metrics != null) {
+            metrics.reset(0);
+        }
+        distancePhase();
+        int move = assignmentPhase();
+        double inertia = measuring ? inertia() : Double.NaN;
+        double bestInertia = Double.POSITIVE_INFINITY;
+        boolean kept = false;
+        if (keep) {
+            kept = inertia < bestInertia;
+            bestInertia = keep(inertia, bestInertia);
+        }
+        if (metrics != null) {
+            report(move, inertia);
+        }
         int i = 0;
         while (move > 0 && i++ < iteration) {
-            if (points.length >= centroids.length) {
-                move = fillEmptyCentroids();
+            if (stopped(deadline)) {
+                break;
+            }
+            if (metrics != null) {
+                metrics.reset(i);
+            }
+            kept = false;
+            if (n >= k) {
+                move = fillPhase();
+            }
+            double shift = centerPhase();
+            if (shiftTolerance > 0 && Double.isNaN(shift)) {
+                throw new IllegalStateException("this engine does not measure centroid shift, clear the shift tolerance");
+            }
+            distancePhase();
+            if (stopped(deadline)) {
+                break;
+            }
+            move += assignmentPhase();
+            double previous = inertia;
+            if (measuring) {
+                inertia = inertia();
+            }
+            if (keep) {
+                kept = inertia < bestInertia;
+                bestInertia = keep(inertia, bestInertia);
             }
-            moveCentroids();
-            calculateDistances();
-            move += makeAssignments();
             if (listener != null) {
                 listener.iteration(i, move);
             }
+            if (metrics != null) {
+                report(move, inertia);
+            }
+            if (tolerance > 0 && previous - inertia <= tolerance * previous) {
+                break;
+            }
+            if (shiftTolerance > 0 && shift <= shiftTolerance) {
+                break;
+            }
+            if (moveTolerance > 0 && move <= moveTolerance * n) {
+                break;
+            }
+        }
+        // a stop part way through an iteration leaves a state that was never measured
+        if (keep && !kept) {
+            restore();
         }
+        stoppedByCancel = cancelled;
+        cancelled = false;
         return assignments;
     }
 
+    private boolean stopped(long deadline) {
+        return cancelled || Thread.currentThread().isInterrupted() || (deadline != 0 && System.nanoTime() - deadline >= 0);
+    }
+
+    private double keep(double inertia, double bestInertia) {
+        if (inertia >= bestInertia) {
+            return bestInertia;
+        }
+        if (best == null || best.length < n) {
+            best = new int[n];
+        }
+        System.arraycopy(assignments, 0, best, 0, n);
+        return inertia;
+    }
+
+    private void restore() {
+        for (int p = 0; p < n; p++) {
+            if (assignments[p] != best[p]) {
+                move(p, best[p]);
+            }
+        }
+        Arrays.fill(counts, 0);
+        for (int p = 0; p < n; p++) {
+            if (assignments[p] != -1) {
+                counts[assignments[p]] += weight(p);
+            }
+        }
+        moveCentroids();
+    }
+
+    protected double inertia() {
+        double inertia = 0;
+        for (int p = 0; p < n; p++) {
+            if (assignments[p] != -1) {
+                inertia += costs[p];
+            }
+        }
+        return inertia;
+    }
+
+    protected double cost(double distance) {
+        return distance * distance;
+    }
+
+    protected void record(int p, double distance) {
+        if (measuring) {
+            costs[p] = cost(distance) * weight(p);
+        }
+    }
+
+    private void distancePhase() {
+        if (metrics == null) {
+            calculateDistances();
+            return;
+        }
+        if (isTabulated()) {
+            for (int c = 0; c < k; c++) {
+                if (changed[c]) {
+                    metrics.evaluations += n;
+                }
+            }
+        }
+        long time = System.nanoTime();
+        calculateDistances();
+        metrics.distanceTime += System.nanoTime() - time;
+    }
+
+    private int assignmentPhase() {
+        if (metrics == null) {
+            return makeAssignments();
+        }
+        long time = System.nanoTime();
+        int move = makeAssignments();
+        metrics.assignmentTime += System.nanoTime() - time - metrics.remakeTime;
+        return move;
+    }
+
+    private int fillPhase() {
+        if (metrics == null) {
+            return fillEmptyCentroids();
+        }
+        long time = System.nanoTime();
+        int move = fillEmptyCentroids();
+        metrics.fillTime += System.nanoTime() - time;
+        return move;
+    }
+
+    private double centerPhase() {
+        if (metrics == null) {
+            if (shiftTolerance > 0) {
+                return moveCentroidsAndMeasure();
+            }
+            moveCentroids();
+            return Double.NaN;
+        }
+        long time = System.nanoTime();
+        metrics.maxShift = moveCentroidsAndMeasure();
+        metrics.centerTime += System.nanoTime() - time;
+        return metrics.maxShift;
+    }
+
+    private void report(int move, double inertia) {
+        metrics.move = move;
+        metrics.inertia = inertia;
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int c = 0; c < k; c++) {
+            min = Math.min(min, counts[c]);
+            max = Math.max(max, counts[c]);
+        }
+        metrics.minCount = k > 0 ? min : 0;
+        metrics.maxCount = max;
+        ((MetricsListener) listener).metrics(metrics);
+    }
+
+    protected double moveCentroidsAndMeasure() {
+        moveCentroids();
+        return Double.NaN;
+    }
+
     protected void calculateDistances() {
-        distanceFunction.distance(changed, distances, centroids, points);
+        if (distances != null) {
+            distanceFunction.distance(changed, distances, centroids, points);
+        } else {
+            pass++;
+        }
         Arrays.fill(changed, false);
     }
 
+    protected double distance(int c, int p) {
+        return distances[c][p];
+    }
+
+    protected int weight(int p) {
+        return weights != null ? weights[p] : 1;
+    }
+
+    protected boolean isTabulated() {
+        return distances != null;
+    }
+
+    protected double evaluate(int c, int p) {
+        if (metrics != null && !isTabulated()) {
+            metrics.evaluations++;
+        }
+        return distance(c, p);
+    }
+
+    protected void nearestCentroids(int p) {
+        if (passes[p] == pass) {
+            return;
+        }
+        double md1 = Double.POSITIVE_INFINITY;
+        double md2 = Double.POSITIVE_INFINITY;
+        int nc1 = -1;
+        int nc2 = -1;
+        for (int c = 0; c < k; c++) {
+            double d = evaluate(c, p);
+            if (d < md1) {
+                md2 = md1;
+                nc2 = nc1;
+                md1 = d;
+                nc1 = c;
+            } else if (d < md2) {
+                md2 = d;
+                nc2 = c;
+            }
+        }
+        firsts[p] = nc1;
+        firstDistances[p] = md1;
+        seconds[p] = nc2;
+        secondDistances[p] = md2;
+        passes[p] = pass;
+    }
+
     protected int makeAssignments() {
         int move = 0;
         Arrays.fill(counts, 0);
-        for (int p = 0; p < points.length; p++) {
+        for (int p = 0; p < n; p++) {
             int nc = nearestCentroid(p);
             if (nc == -1) {
                 continue;
             }
             if (assignments[p] != nc) {
-                if (assignments[p] != -1) {
-                    changed[assignments[p]] = true;
-                }
-                changed[nc] = true;
-                assignments[p] = nc;
+                move(p, nc);
                 move++;
             }
-            counts[nc]++;
+            counts[nc] += weight(p);
             if (equal && counts[nc] > idealCount) {
-                move += remakeAssignments(nc);
+                if (metrics != null) {
+                    long time = System.nanoTime();
+                    move += remakeAssignments(nc);
+                    metrics.remakeTime += System.nanoTime() - time;
+                } else {
+                    move += remakeAssignments(nc);
+                }
             }
         }
         return move;
@@ -132,15 +564,40 @@ public class AbstractEKmeans<Centroid, Point> {
         double md = Double.POSITIVE_INFINITY;
         int nc = -1;
         int np = -1;
-        for (int p = 0; p < points.length; p++) {
+        for (int p = 0; p < n; p++) {
             if (assignments[p] != cc) {
                 continue;
             }
-            for (int c = 0; c < centroids.length; c++) {
+            if (firsts != null) {
+                nearestCentroids(p);
+                int c = firsts[p] != cc ? firsts[p] : seconds[p];
+                double d = firsts[p] != cc ? firstDistances[p] : secondDistances[p];
+                if (c != -1 && done[c]) {
+                    c = -1;
+                    d = Double.POSITIVE_INFINITY;
+                    for (int oc = 0; oc < k; oc++) {
+                        if (oc == cc || done[oc]) {
+                            continue;
+                        }
+                        double od = evaluate(oc, p);
+                        if (od < d) {
+                            d = od;
+                            c = oc;
+                        }
+                    }
+                }
+                if (c != -1 && d < md) {
+                    md = d;
+                    nc = c;
+                    np = p;
+                }
+                continue;
+            }
+            for (int c = 0; c < k; c++) {
                 if (c == cc || done[c]) {
                     continue;
                 }
-                double d = distances[c][p];
+                double d = evaluate(c, p);
                 if (d < md) {
                     md = d;
                     nc = c;
@@ -150,15 +607,12 @@ public class AbstractEKmeans<Centroid, Point> {
         }
         if (nc != -1 && np != -1) {
             if (assignments[np] != nc) {
-                if (assignments[np] != -1) {
-                    changed[assignments[np]] = true;
-                }
-                changed[nc] = true;
-                assignments[np] = nc;
+                move(np, nc);
                 move++;
             }
-            counts[cc]--;
-            counts[nc]++;
+            record(np, md);
+            counts[cc] -= weight(np);
+            counts[nc] += weight(np);
             if (counts[nc] > idealCount) {
                 done[cc] = true;
                 move += remakeAssignments(nc);
@@ -168,27 +622,41 @@ public class AbstractEKmeans<Centroid, Point> {
         return move;
     }
 
+    protected void move(int p, int c) {
+        if (assignments[p] != -1) {
+            changed[assignments[p]] = true;
+        }
+        changed[c] = true;
+        assignments[p] = c;
+    }
+
     protected int nearestCentroid(int p) {
+        if (firsts != null) {
+            nearestCentroids(p);
+            record(p, firstDistances[p]);
+            return firsts[p];
+        }
         double md = Double.POSITIVE_INFINITY;
         int nc = -1;
-        for (int c = 0; c < centroids.length; c++) {
-            double d = distances[c][p];
+        for (int c = 0; c < k; c++) {
+            double d = evaluate(c, p);
             if (d < md) {
                 md = d;
                 nc = c;
             }
         }
+        record(p, md);
         return nc;
     }
 
     protected int nearestPoint(int inc, int fromc) {
         double md = Double.POSITIVE_INFINITY;
         int np = -1;
-        for (int p = 0; p < points.length; p++) {
+        for (int p = 0; p < n; p++) {
             if (assignments[p] != inc) {
                 continue;
             }
-            double d = distances[fromc][p];
+            double d = evaluate(fromc, p);
             if (d < md) {
                 md = d;
                 np = p;
@@ -200,7 +668,7 @@ public class AbstractEKmeans<Centroid, Point> {
     protected int largestCentroid(int except) {
         int lc = -1;
         int mc = 0;
-        for (int c = 0; c < centroids.length; c++) {
+        for (int c = 0; c < k; c++) {
             if (c == except) {
                 continue;
             }
@@ -213,15 +681,16 @@ public class AbstractEKmeans<Centroid, Point> {
 
     protected int fillEmptyCentroids() {
         int move = 0;
-        for (int c = 0; c < centroids.length; c++) {
+        for (int c = 0; c < k; c++) {
             if (counts[c] == 0) {
                 int lc = largestCentroid(c);
                 int np = nearestPoint(lc, c);
-                assignments[np] = c;
-                counts[c]++;
-                counts[lc]--;
-                changed[c] = true;
-                changed[lc] = true;
+                move(np, c);
+                if (measuring) {
+                    record(np, evaluate(c, np));
+                }
+                counts[c] += weight(np);
+                counts[lc] -= weight(np);
                 move++;
             }
         }
@@ -229,6 +698,12 @@ public class AbstractEKmeans<Centroid, Point> {
     }
 
     protected void moveCentroids() {
-        centerFunction.center(changed, assignments, centroids, points);
+        if (weights == null) {
+            centerFunction.center(changed, assignments, centroids, points);
+        } else if (centerFunction instanceof WeightedCenterFunction) {
+            ((WeightedCenterFunction<Centroid, Point>) centerFunction).center(changed, assignments, weights, centroids, points);
+        } else {
+            throw new IllegalStateException("center function does not support weights");
+        }
     }
 }
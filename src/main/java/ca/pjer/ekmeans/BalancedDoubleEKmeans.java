@@ -0,0 +1,205 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class BalancedDoubleEKmeans extends DoubleEKmeans {
+
+    protected int[] targets;
+    protected double[] targetDistances;
+    protected double[] regrets;
+    protected int[] wishes;
+    protected double[] wishDistances;
+    protected int[] heap;
+    protected int[] heads;
+    protected int[] nexts;
+
+    public BalancedDoubleEKmeans(double[][] centroids, double[][] points, boolean table, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        super(centroids, points, true, table, doubleDistanceFunction, listener);
+    }
+
+    @Override
+    protected boolean usesNearestCaches() {
+        return false;
+    }
+
+    @Override
+    protected int makeAssignments() {
+        return makeBalancedAssignments();
+    }
+
+    protected int makeBalancedAssignments() {
+        if (heap == null || heap.length < n || heads.length < k) {
+            targets = new int[n];
+            targetDistances = new double[n];
+            regrets = new double[n];
+            wishes = new int[n];
+            wishDistances = new double[n];
+            heap = new int[n];
+            heads = new int[k];
+            nexts = new int[n];
+        }
+        Arrays.fill(counts, 0);
+        long total = 0;
+        for (int p = 0; p < n; p++) {
+            total += weight(p);
+        }
+        int extra = (int) (total - (long) idealCount * k);
+        int capacity = extra > 0 ? idealCount + 1 : idealCount;
+        int size = 0;
+        for (int p = 0; p < n; p++) {
+            target(p, extra);
+            wishes[p] = targets[p];
+            wishDistances[p] = targetDistances[p];
+            size = push(p, size);
+        }
+        while (size > 0) {
+            int p = heap[0];
+            size = pop(size);
+            int c = targets[p];
+            if (c == -1) {
+                continue;
+            }
+            if (full(c, extra)) {
+                target(p, extra);
+                size = push(p, size);
+                continue;
+            }
+            int count = counts[c];
+            counts[c] += weight(p);
+            if (count <= idealCount && counts[c] > idealCount) {
+                extra--;
+            }
+        }
+        while (swapTargets(capacity)) {
+        }
+        int move = 0;
+        for (int p = 0; p < n; p++) {
+            int c = targets[p];
+            if (c != -1) {
+                record(p, targetDistances[p]);
+            }
+            if (c == -1 || assignments[p] == c) {
+                continue;
+            }
+            move(p, c);
+            move++;
+        }
+        return move;
+    }
+
+    // moving delta weight from a to w must not push either past capacity unless it already was
+    private boolean fits(int a, int w, int delta, int capacity) {
+        return delta == 0
+                || counts[w] + delta <= Math.max(counts[w], capacity) && counts[a] - delta <= Math.max(counts[a], capacity);
+    }
+
+    private boolean swapTargets(int capacity) {
+        boolean swap = false;
+        Arrays.fill(heads, -1);
+        for (int p = n - 1; p >= 0; p--) {
+            int c = targets[p];
+            if (c != -1 && wishes[p] != c) {
+                nexts[p] = heads[c];
+                heads[c] = p;
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            int a = targets[p];
+            int w = wishes[p];
+            if (a == -1 || w == a) {
+                continue;
+            }
+            double gain = targetDistances[p] - wishDistances[p];
+            int bq = -1;
+            double bd = 0;
+            for (int q = heads[w]; q != -1; q = nexts[q]) {
+                if (targets[q] != w || wishes[q] == w || !fits(a, w, weight(p) - weight(q), capacity)) {
+                    continue;
+                }
+                double d = evaluate(a, q);
+                if (gain + targetDistances[q] - d > 0 && (bq == -1 || d - targetDistances[q] < bd - targetDistances[bq])) {
+                    bq = q;
+                    bd = d;
+                }
+            }
+            if (bq != -1) {
+                targets[p] = w;
+                targetDistances[p] = wishDistances[p];
+                targets[bq] = a;
+                targetDistances[bq] = bd;
+                int delta = weight(p) - weight(bq);
+                counts[a] -= delta;
+                counts[w] += delta;
+                swap = true;
+            }
+        }
+        return swap;
+    }
+
+    private boolean full(int c, int extra) {
+        return counts[c] > idealCount || (counts[c] == idealCount && extra <= 0);
+    }
+
+    private void target(int p, int extra) {
+        double md1 = Double.POSITIVE_INFINITY;
+        double md2 = Double.POSITIVE_INFINITY;
+        int nc = -1;
+        for (int c = 0; c < k; c++) {
+            if (full(c, extra)) {
+                continue;
+            }
+            double d = evaluate(c, p);
+            if (d < md1 || nc == -1) {
+                md2 = md1;
+                md1 = d;
+                nc = c;
+            } else if (d < md2) {
+                md2 = d;
+            }
+        }
+        targets[p] = nc;
+        targetDistances[p] = md1;
+        regrets[p] = md2 - md1;
+    }
+
+    private boolean before(int p1, int p2) {
+        return regrets[p1] > regrets[p2] || (regrets[p1] == regrets[p2] && p1 < p2);
+    }
+
+    private int push(int p, int size) {
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(p, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = p;
+        return size;
+    }
+
+    private int pop(int size) {
+        int p = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], p)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = p;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,320 @@
+package ca.pjer.ekmeans;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+public class CsvLoader {
+
+    public static class Result {
+
+        public final double[] points;
+        public final int count;
+        public final int dimension;
+        public final String[] lines;
+
+        public Result(double[] points, int count, int dimension, String[] lines) {
+            this.points = points;
+            this.count = count;
+            this.dimension = dimension;
+            this.lines = lines;
+        }
+
+        public double[][] toArray() {
+            double[][] array = new double[count][dimension];
+            for (int p = 0; p < count; p++) {
+                System.arraycopy(points, p * dimension, array[p], 0, dimension);
+            }
+            return array;
+        }
+    }
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private class Chunk implements Callable<Chunk> {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final boolean skip;
+
+        private double[] values;
+        private int count;
+        private List<String> lines;
+
+        private byte[] bytes;
+        private int length;
+        private int position;
+        private long offset;
+        private boolean eof;
+
+        private final int[] starts;
+        private final int[] ends;
+
+        Chunk(FileChannel channel, long start, long end, boolean skip) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.skip = skip;
+            if (keepLines) {
+                lines = new ArrayList<String>();
+            }
+            starts = new int[width];
+            ends = new int[width];
+        }
+
+        public Chunk call() throws IOException {
+            values = new double[dimension * 64];
+            bytes = new byte[(int) Math.min(1 << 16, end - start + 256)];
+            offset = start > 0 ? start - 1 : 0;
+            if (start > 0 || skip) {
+                int c;
+                if (start > 0 && (c = next()) != '\n') {
+                    while (c != -1 && c != '\n') {
+                        c = next();
+                    }
+                } else if (start == 0) {
+                    while ((c = next()) != -1 && c != '\n') {
+                    }
+                }
+            }
+            while (offset - length + position < end) {
+                long lineOffset = offset - length + position;
+                int i = position;
+                boolean newline = false;
+                while (true) {
+                    if (i == length) {
+                        int scanned = i - position;
+                        if (!fill()) {
+                            break;
+                        }
+                        i = position + scanned;
+                        continue;
+                    }
+                    if (bytes[i] == '\n') {
+                        newline = true;
+                        break;
+                    }
+                    i++;
+                }
+                int from = position;
+                int to = i;
+                position = newline ? i + 1 : i;
+                if (to > from && bytes[to - 1] == '\r') {
+                    to--;
+                }
+                if (to > from) {
+                    line(from, to, lineOffset);
+                }
+                if (!newline) {
+                    break;
+                }
+            }
+            bytes = null;
+            return this;
+        }
+
+        private void line(int from, int to, long lineOffset) throws IOException {
+            int field = 0;
+            int fieldStart = from;
+            for (int i = from; i <= to && field < width; i++) {
+                if (i == to || bytes[i] == separator) {
+                    starts[field] = fieldStart;
+                    ends[field] = i;
+                    field++;
+                    fieldStart = i + 1;
+                }
+            }
+            if (count * dimension + dimension > values.length) {
+                double[] grown = new double[Math.max(values.length * 2, count * dimension + dimension)];
+                System.arraycopy(values, 0, grown, 0, count * dimension);
+                values = grown;
+            }
+            int base = count * dimension;
+            for (int d = 0; d < dimension; d++) {
+                int column = columns[d];
+                if (column >= field) {
+                    throw new IOException("missing column " + column + " at byte " + lineOffset);
+                }
+                values[base + d] = parse(bytes, starts[column], ends[column], lineOffset);
+            }
+            if (lines != null) {
+                lines.add(new String(bytes, from, to - from, "UTF-8"));
+            }
+            count++;
+        }
+
+        private int peek() throws IOException {
+            if (position == length && !fill()) {
+                return -1;
+            }
+            return bytes[position];
+        }
+
+        private int next() throws IOException {
+            int c = peek();
+            if (c != -1) {
+                position++;
+            }
+            return c;
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            if (length == bytes.length) {
+                if (position > 0) {
+                    System.arraycopy(bytes, position, bytes, 0, length - position);
+                    length -= position;
+                    position = 0;
+                } else {
+                    byte[] grown = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, grown, 0, length);
+                    bytes = grown;
+                }
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, length, bytes.length - length), offset);
+            if (read <= 0) {
+                eof = true;
+                return false;
+            }
+            length += read;
+            offset += read;
+            return true;
+        }
+    }
+
+    protected final int[] columns;
+    protected final int dimension;
+    protected final int width;
+    protected final char separator;
+    protected final boolean header;
+    protected final boolean keepLines;
+    protected final ExecutorService executorService;
+    protected final long chunkSize;
+
+    public CsvLoader(int[] columns, char separator, boolean header, boolean keepLines, ExecutorService executorService, long chunkSize) {
+        this.columns = columns.clone();
+        this.dimension = columns.length;
+        int max = -1;
+        for (int column : columns) {
+            max = Math.max(max, column);
+        }
+        this.width = max + 1;
+        this.separator = separator;
+        this.header = header;
+        this.keepLines = keepLines;
+        this.executorService = executorService;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public CsvLoader(int[] columns, boolean keepLines) {
+        this(columns, ',', false, keepLines, null, 64L << 20);
+    }
+
+    public Result load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            for (long start = 0; start < size || start == 0; start += chunkSize) {
+                chunks.add(new Chunk(channel, start, Math.min(size, start + chunkSize), start == 0 && header));
+            }
+            Parallel.invokeIO(executorService, chunks);
+            int count = 0;
+            for (Chunk chunk : chunks) {
+                count += chunk.count;
+            }
+            double[] points = new double[count * dimension];
+            String[] lines = keepLines ? new String[count] : null;
+            int p = 0;
+            for (Chunk chunk : chunks) {
+                System.arraycopy(chunk.values, 0, points, p * dimension, chunk.count * dimension);
+                if (lines != null) {
+                    for (int i = 0; i < chunk.count; i++) {
+                        lines[p + i] = chunk.lines.get(i);
+                    }
+                }
+                p += chunk.count;
+            }
+            return new Result(points, count, dimension, lines);
+        } finally {
+            raf.close();
+        }
+    }
+
+    protected static double parse(byte[] bytes, int from, int to, long lineOffset) throws IOException {
+        while (from < to && bytes[from] <= ' ') {
+            from++;
+        }
+        while (to > from && bytes[to - 1] <= ' ') {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        boolean any = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    if (fraction) {
+                        scale--;
+                    }
+                    continue;
+                }
+                if (digits >= 15) {
+                    return slow(bytes, from, to, lineOffset);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction) {
+                    scale--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                return slow(bytes, from, to, lineOffset);
+            }
+        }
+        if (!any) {
+            return slow(bytes, from, to, lineOffset);
+        }
+        double value = mantissa;
+        if (scale < 0) {
+            if (-scale > 22) {
+                return slow(bytes, from, to, lineOffset);
+            }
+            value /= POW10[-scale];
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slow(byte[] bytes, int from, int to, long lineOffset) throws IOException {
+        String value = new String(bytes, from, to - from, "UTF-8");
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid number '" + value + "' at byte " + lineOffset);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package ca.pjer.ekmeans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+public class DoubleCoreset {
+
+    private static final int BLOCK = 65536;
+
+    public static class Result {
+
+        public final double[][] points;
+        public final int[] weights;
+
+        public Result(double[][] points, int[] weights) {
+            this.points = points;
+            this.weights = weights;
+        }
+
+        public long getWeight() {
+            long weight = 0;
+            for (int w : weights) {
+                weight += w;
+            }
+            return weight;
+        }
+    }
+
+    private interface Source {
+
+        int count();
+
+        int dimension();
+
+        boolean direct();
+
+        double[] point(int p, double[] buffer);
+
+    }
+
+    private DoubleCoreset() {
+    }
+
+    public static Result lightweight(double[][] points, int size, long seed, ExecutorService executorService) {
+        return lightweight(source(points), size, seed, executorService);
+    }
+
+    public static Result lightweight(PointFile points, int size, long seed, ExecutorService executorService) {
+        return lightweight(source(points), size, seed, executorService);
+    }
+
+    public static int[] cluster(double[][] points, double[][] centroids, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, int size, int iteration, long seed, ExecutorService executorService) {
+        return cluster(source(points), centroids, equal, doubleDistanceFunction, size, iteration, seed, executorService);
+    }
+
+    public static int[] cluster(PointFile points, double[][] centroids, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, int size, int iteration, long seed, ExecutorService executorService) {
+        return cluster(source(points), centroids, equal, doubleDistanceFunction, size, iteration, seed, executorService);
+    }
+
+    private static int[] cluster(Source source, double[][] centroids, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, int size, int iteration, long seed, ExecutorService executorService) {
+        Result coreset = lightweight(source, size, seed, executorService);
+        DoubleEKmeans eKmeans;
+        if (equal) {
+            eKmeans = new BalancedDoubleEKmeans(centroids, coreset.points, true, doubleDistanceFunction, null);
+        } else {
+            eKmeans = new DoubleEKmeans(centroids, coreset.points, false, doubleDistanceFunction, null);
+        }
+        eKmeans.setWeights(coreset.weights);
+        eKmeans.run(iteration);
+        return assign(source, new DoubleEKmeansModel(centroids, doubleDistanceFunction, null), equal, executorService);
+    }
+
+    private static Result lightweight(final Source source, int size, final long seed, ExecutorService executorService) {
+        final int n = source.count();
+        final int dimension = source.dimension();
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        size = Math.min(size, n);
+        final int[] sizes = new int[blocks];
+        int left = size;
+        for (int b = 0; b < blocks; b++) {
+            sizes[b] = (int) ((long) size * (Math.min(n, (b + 1) * BLOCK) - b * BLOCK) / n);
+            left -= sizes[b];
+        }
+        for (int b = 0; left > 0; b = (b + 1) % blocks) {
+            sizes[b]++;
+            left--;
+        }
+        final double[][][] sampledPoints = new double[blocks][][];
+        final int[][] sampledWeights = new int[blocks][];
+        Parallel.each(n, BLOCK, executorService, new Parallel.Block() {
+            public void run(int b, int ps, int pe) {
+                int s = pe - ps;
+                int m = sizes[b];
+                double[] buffer = new double[dimension];
+                double[] mean = new double[dimension];
+                for (int p = ps; p < pe; p++) {
+                    double[] point = source.point(p, buffer);
+                    for (int d = 0; d < dimension && d < point.length; d++) {
+                        mean[d] += point[d];
+                    }
+                }
+                for (int d = 0; d < dimension; d++) {
+                    mean[d] /= s;
+                }
+                double[] costs = new double[s];
+                double total = 0;
+                for (int p = ps; p < pe; p++) {
+                    double[] point = source.point(p, buffer);
+                    double c = 0;
+                    for (int d = 0; d < dimension && d < point.length; d++) {
+                        double v = point[d] - mean[d];
+                        c += v * v;
+                    }
+                    costs[p - ps] = c;
+                    total += c;
+                }
+                Random random = new Random(seed + 1000003L * b);
+                double[] draws = new double[m];
+                for (int i = 0; i < m; i++) {
+                    draws[i] = random.nextDouble();
+                }
+                Arrays.sort(draws);
+                List<double[]> points = new ArrayList<double[]>();
+                List<Integer> weights = new ArrayList<Integer>();
+                double cumulative = 0;
+                for (int i = 0, j = 0; i < s && j < m; i++) {
+                    double q = total > 0 ? 0.5 / s + 0.5 * costs[i] / total : 1d / s;
+                    cumulative += q;
+                    int hits = 0;
+                    while (j < m && (draws[j] < cumulative || i == s - 1)) {
+                        hits++;
+                        j++;
+                    }
+                    if (hits == 0) continue;
+                    points.add(source.point(ps + i, null));
+                    weights.add((int) Math.max(1, Math.round(hits / (m * q))));
+                }
+                sampledPoints[b] = points.toArray(new double[points.size()][]);
+                sampledWeights[b] = new int[weights.size()];
+                for (int i = 0; i < sampledWeights[b].length; i++) {
+                    sampledWeights[b][i] = weights.get(i);
+                }
+            }
+        });
+        int count = 0;
+        for (double[][] block : sampledPoints) {
+            count += block.length;
+        }
+        double[][] points = new double[count][];
+        int[] weights = new int[count];
+        int i = 0;
+        for (int b = 0; b < blocks; b++) {
+            System.arraycopy(sampledPoints[b], 0, points, i, sampledPoints[b].length);
+            System.arraycopy(sampledWeights[b], 0, weights, i, sampledWeights[b].length);
+            i += sampledPoints[b].length;
+        }
+        return new Result(points, weights);
+    }
+
+    private static int[] assign(final Source source, final DoubleEKmeansModel model, boolean equal, ExecutorService executorService) {
+        final int n = source.count();
+        final int[] assignments = new int[n];
+        if (!equal) {
+            Parallel.each(n, BLOCK, executorService, new Parallel.Block() {
+                public void run(int b, int ps, int pe) {
+                    double[] buffer = new double[source.dimension()];
+                    int hint = 0;
+                    for (int p = ps; p < pe; p++) {
+                        hint = assignments[p] = model.predict(source.point(p, buffer), hint);
+                    }
+                }
+            });
+            return assignments;
+        }
+        int k = model.getK();
+        long[] capacities = new long[k];
+        long[] quotas = new long[k];
+        long ideal = k > 0 ? n / k : 0;
+        long extra = n - ideal * k;
+        for (int c = 0; c < k; c++) {
+            capacities[c] = ideal + (c < extra ? 1 : 0);
+        }
+        double[][] buffers = source.direct() ? null : new double[BLOCK][source.dimension()];
+        double[] regrets = new double[BLOCK];
+        int[] order = new int[BLOCK];
+        int[] out = new int[BLOCK];
+        for (int ps = 0; ps < n; ps += BLOCK) {
+            int pe = Math.min(n, ps + BLOCK);
+            int size = pe - ps;
+            long remaining = n - ps;
+            double[][] rows = rows(source, ps, pe, buffers);
+            for (int c = 0; c < k; c++) {
+                quotas[c] = remaining > size ? (capacities[c] * size + remaining - 1) / remaining : capacities[c];
+                capacities[c] -= quotas[c];
+            }
+            model.predict(rows, 0, size, out, quotas, regrets, order);
+            for (int c = 0; c < k; c++) {
+                capacities[c] += quotas[c];
+            }
+            System.arraycopy(out, 0, assignments, ps, size);
+        }
+        return assignments;
+    }
+
+    private static double[][] rows(Source source, int ps, int pe, double[][] buffers) {
+        double[][] rows = new double[pe - ps][];
+        for (int p = ps; p < pe; p++) {
+            rows[p - ps] = source.point(p, buffers != null ? buffers[p - ps] : null);
+        }
+        return rows;
+    }
+
+    private static Source source(final double[][] points) {
+        return new Source() {
+            public int count() {
+                return points.length;
+            }
+
+            public int dimension() {
+                return points.length > 0 ? points[0].length : 0;
+            }
+
+            public boolean direct() {
+                return true;
+            }
+
+            public double[] point(int p, double[] buffer) {
+                return points[p];
+            }
+        };
+    }
+
+    private static Source source(final PointFile points) {
+        return new Source() {
+            public int count() {
+                return points.getCount();
+            }
+
+            public int dimension() {
+                return points.getDimension();
+            }
+
+            public boolean direct() {
+                return false;
+            }
+
+            public double[] point(int p, double[] buffer) {
+                if (buffer == null) {
+                    buffer = new double[points.getDimension()];
+                }
+                points.read(p, buffer);
+                return buffer;
+            }
+        };
+    }
+}
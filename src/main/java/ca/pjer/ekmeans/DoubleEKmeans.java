@@ -1,6 +1,10 @@
 package ca.pjer.ekmeans;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 public class DoubleEKmeans extends AbstractEKmeans<double[], double[]> {
 
@@ -15,12 +19,40 @@ public class DoubleEKmeans extends AbstractEKmeans<double[], double[]> {
         public double distance(double[] p1, double[] p2) {
             double s = 0;
             for (int d = 0; d < p1.length && d < p2.length; d++) {
-                s += Math.pow(Math.abs(p1[d] - p2[d]), 2);
+                double v = p1[d] - p2[d];
+                s += v * v;
             }
             return Math.sqrt(s);
         }
     };
 
+    public static final DoubleDistanceFunction SQUARED_EUCLIDEAN_DISTANCE_FUNCTION = new DoubleDistanceFunction() {
+
+        public double distance(double[] p1, double[] p2) {
+            int length = Math.min(p1.length, p2.length);
+            int unrolled = length & ~3;
+            double s0 = 0;
+            double s1 = 0;
+            double s2 = 0;
+            double s3 = 0;
+            for (int d = 0; d < unrolled; d += 4) {
+                double v0 = p1[d] - p2[d];
+                double v1 = p1[d + 1] - p2[d + 1];
+                double v2 = p1[d + 2] - p2[d + 2];
+                double v3 = p1[d + 3] - p2[d + 3];
+                s0 += v0 * v0;
+                s1 += v1 * v1;
+                s2 += v2 * v2;
+                s3 += v3 * v3;
+            }
+            for (int d = unrolled; d < length; d++) {
+                double v = p1[d] - p2[d];
+                s0 += v * v;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+    };
+
     public static final DoubleDistanceFunction MANHATTAN_DISTANCE_FUNCTION = new DoubleDistanceFunction() {
 
         public double distance(double[] p1, double[] p2) {
@@ -52,19 +84,71 @@ public class DoubleEKmeans extends AbstractEKmeans<double[], double[]> {
         }
     }
 
-    protected static class CenterFunction implements AbstractEKmeans.CenterFunction<double[], double[]> {
+    protected static class ParallelDistanceFunction implements AbstractEKmeans.DistanceFunction<double[], double[]> {
+
+        private final DoubleDistanceFunction doubleDistanceFunction;
+        private final ExecutorService executorService;
+        private final int centroidBlock;
+        private final int pointBlock;
+
+        public ParallelDistanceFunction(DoubleDistanceFunction doubleDistanceFunction, ExecutorService executorService, int centroidBlock, int pointBlock) {
+            this.doubleDistanceFunction = doubleDistanceFunction;
+            this.executorService = executorService;
+            this.centroidBlock = Math.max(1, centroidBlock);
+            this.pointBlock = Math.max(1, pointBlock);
+        }
+
+        public void distance(final boolean[] changed, final double[][] distances, final double[][] centroids, final double[][] points) {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int c0 = 0; c0 < centroids.length; c0 += centroidBlock) {
+                final int cs = c0;
+                final int ce = Math.min(c0 + centroidBlock, centroids.length);
+                boolean any = false;
+                for (int c = cs; c < ce && !any; c++) {
+                    any = changed[c];
+                }
+                if (!any) continue;
+                for (int p0 = 0; p0 < points.length; p0 += pointBlock) {
+                    final int ps = p0;
+                    final int pe = Math.min(p0 + pointBlock, points.length);
+                    tasks.add(new Callable<Object>() {
+                        public Object call() {
+                            for (int c = cs; c < ce; c++) {
+                                if (!changed[c]) continue;
+                                double[] centroid = centroids[c];
+                                double[] row = distances[c];
+                                for (int p = ps; p < pe; p++) {
+                                    row[p] = doubleDistanceFunction.distance(centroid, points[p]);
+                                }
+                            }
+                            return null;
+                        }
+                    });
+                }
+            }
+            Parallel.invoke(executorService, tasks);
+        }
+    }
+
+    protected static class CenterFunction implements AbstractEKmeans.WeightedCenterFunction<double[], double[]> {
 
         public void center(boolean[] changed, int[] assignments, double[][] centroids, double[][] points) {
+            center(changed, assignments, null, centroids, points);
+        }
+
+        public void center(boolean[] changed, int[] assignments, int[] weights, double[][] centroids, double[][] points) {
             for (int c = 0; c < centroids.length; c++) {
                 if (!changed[c]) continue;
                 double[] centroid = centroids[c];
-                int n = 0;
+                long n = 0;
                 for (int p = 0; p < points.length; p++) {
                     if (assignments[p] != c) continue;
                     double[] point = points[p];
-                    if (n++ == 0) Arrays.fill(centroid, 0d);
+                    int w = weights != null ? weights[p] : 1;
+                    if (n == 0) Arrays.fill(centroid, 0d);
+                    n += w;
                     for (int d = 0; d < centroid.length && d < point.length; d++) {
-                        centroid[d] += point[d];
+                        centroid[d] += point[d] * w;
                     }
                 }
                 if (n > 0) {
@@ -76,7 +160,73 @@ public class DoubleEKmeans extends AbstractEKmeans<double[], double[]> {
         }
     }
 
+    protected final DoubleDistanceFunction doubleDistanceFunction;
+    protected double[][] snapshots;
+
     public DoubleEKmeans(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
-        super(centroids, points, equal, new DistanceFunction(doubleDistanceFunction), new CenterFunction(), listener);
+        this(centroids, points, equal, true, doubleDistanceFunction, listener);
+    }
+
+    public DoubleEKmeans(double[][] centroids, double[][] points, boolean equal, boolean table, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        super(centroids, points, equal, table, new DistanceFunction(doubleDistanceFunction), new CenterFunction(), listener);
+        this.doubleDistanceFunction = doubleDistanceFunction;
+    }
+
+    public DoubleEKmeans(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction, Listener listener, ExecutorService executorService) {
+        this(centroids, points, equal, doubleDistanceFunction, listener, executorService, 16, 4096);
+    }
+
+    public DoubleEKmeans(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction, Listener listener, ExecutorService executorService, int centroidBlock, int pointBlock) {
+        super(centroids, points, equal, true, new ParallelDistanceFunction(doubleDistanceFunction, executorService, centroidBlock, pointBlock), new CenterFunction(), listener);
+        this.doubleDistanceFunction = doubleDistanceFunction;
+    }
+
+    public static DoubleEKmeans create(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        if (KdTreeDoubleEKmeans.supports(points, doubleDistanceFunction)) {
+            return new KdTreeDoubleEKmeans(centroids, points, equal, doubleDistanceFunction, listener);
+        }
+        return new DoubleEKmeans(centroids, points, equal, doubleDistanceFunction, listener);
+    }
+
+    static double cost(DoubleDistanceFunction doubleDistanceFunction, double[] p1, double[] p2) {
+        return cost(doubleDistanceFunction, doubleDistanceFunction.distance(p1, p2));
+    }
+
+    static double cost(DoubleDistanceFunction doubleDistanceFunction, double distance) {
+        return doubleDistanceFunction == SQUARED_EUCLIDEAN_DISTANCE_FUNCTION ? distance : distance * distance;
+    }
+
+    @Override
+    protected double distance(int c, int p) {
+        if (distances == null) {
+            return doubleDistanceFunction.distance(centroids[c], points[p]);
+        }
+        return distances[c][p];
+    }
+
+    @Override
+    protected double cost(double distance) {
+        return cost(doubleDistanceFunction, distance);
+    }
+
+    @Override
+    protected double moveCentroidsAndMeasure() {
+        if (snapshots == null || snapshots.length < k) {
+            snapshots = new double[k][];
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            if (snapshots[c] == null || snapshots[c].length != centroids[c].length) {
+                snapshots[c] = new double[centroids[c].length];
+            }
+            System.arraycopy(centroids[c], 0, snapshots[c], 0, centroids[c].length);
+        }
+        moveCentroids();
+        double max = 0;
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            max = Math.max(max, doubleDistanceFunction.distance(snapshots[c], centroids[c]));
+        }
+        return max;
     }
 }
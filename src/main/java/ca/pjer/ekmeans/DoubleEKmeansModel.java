@@ -0,0 +1,379 @@
+package ca.pjer.ekmeans;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+
+public class DoubleEKmeansModel {
+
+    public static final int MAGIC = 0x4D4D4B45;
+    public static final int VERSION = 1;
+
+    private static final int CUSTOM = 0;
+    private static final int EUCLIDEAN = 1;
+    private static final int SQUARED_EUCLIDEAN = 2;
+    private static final int MANHATTAN = 3;
+
+    private static final int HEADER = 21;
+    private static final int BLOCK = 4096;
+    private static final int MAX_INDEX = 2048;
+
+    protected final double[][] centroids;
+    protected final int k;
+    protected final int dimension;
+    protected final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+    protected final int[] capacities;
+
+    protected final DoubleEKmeans.DoubleDistanceFunction metric;
+    protected final int[][] neighbors;
+    protected final double[][] neighborDistances;
+    protected final int[] pivots;
+
+    public DoubleEKmeansModel(double[][] centroids, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, int[] capacities) {
+        this.k = centroids.length;
+        this.dimension = k > 0 ? centroids[0].length : 0;
+        this.centroids = new double[k][];
+        for (int c = 0; c < k; c++) {
+            this.centroids[c] = centroids[c].clone();
+        }
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        this.capacities = capacities != null ? capacities.clone() : null;
+        int kind = kind(doubleDistanceFunction);
+        if (kind == CUSTOM || k > MAX_INDEX) {
+            metric = null;
+            neighbors = null;
+            neighborDistances = null;
+            pivots = null;
+            return;
+        }
+        metric = kind == MANHATTAN ? DoubleEKmeans.MANHATTAN_DISTANCE_FUNCTION : DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION;
+        neighbors = new int[k][];
+        neighborDistances = new double[k][];
+        for (int a = 0; a < k; a++) {
+            final double[] row = new double[k];
+            Integer[] order = new Integer[k];
+            for (int b = 0; b < k; b++) {
+                row[b] = metric.distance(this.centroids[a], this.centroids[b]);
+                order[b] = b;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer b1, Integer b2) {
+                    int compare = Double.compare(row[b1], row[b2]);
+                    return compare != 0 ? compare : b1 - b2;
+                }
+            });
+            neighbors[a] = new int[k - 1];
+            neighborDistances[a] = new double[k - 1];
+            for (int i = 0, j = 0; i < k; i++) {
+                if (order[i] == a) continue;
+                neighbors[a][j] = order[i];
+                neighborDistances[a][j] = row[order[i]];
+                j++;
+            }
+        }
+        pivots = new int[Math.min(k, (int) Math.ceil(Math.sqrt(k)))];
+        double[] spread = new double[k];
+        Arrays.fill(spread, Double.POSITIVE_INFINITY);
+        for (int i = 0, next = 0; i < pivots.length; i++) {
+            pivots[i] = next;
+            double far = -1;
+            for (int c = 0; c < k; c++) {
+                double d = metric.distance(this.centroids[next], this.centroids[c]);
+                if (d < spread[c]) {
+                    spread[c] = d;
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (spread[c] > far) {
+                    far = spread[c];
+                    next = c;
+                }
+            }
+        }
+    }
+
+    public static DoubleEKmeansModel of(double[][] centroids, int[] assignments, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction) {
+        int[] counts = new int[centroids.length];
+        for (int assignment : assignments) {
+            if (assignment != -1) {
+                counts[assignment]++;
+            }
+        }
+        return new DoubleEKmeansModel(centroids, doubleDistanceFunction, counts);
+    }
+
+    private static int kind(DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction) {
+        if (doubleDistanceFunction == DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION) {
+            return EUCLIDEAN;
+        } else if (doubleDistanceFunction == DoubleEKmeans.SQUARED_EUCLIDEAN_DISTANCE_FUNCTION) {
+            return SQUARED_EUCLIDEAN;
+        } else if (doubleDistanceFunction == DoubleEKmeans.MANHATTAN_DISTANCE_FUNCTION) {
+            return MANHATTAN;
+        }
+        return CUSTOM;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public double[] getCentroid(int c) {
+        return centroids[c].clone();
+    }
+
+    public int[] getCapacities() {
+        return capacities != null ? capacities.clone() : null;
+    }
+
+    public int predict(double[] point) {
+        return predict(point, 0);
+    }
+
+    protected int predict(double[] point, int hint) {
+        if (k == 0) {
+            return -1;
+        }
+        if (neighbors == null) {
+            double md = Double.POSITIVE_INFINITY;
+            int nc = -1;
+            for (int c = 0; c < k; c++) {
+                double d = doubleDistanceFunction.distance(centroids[c], point);
+                if (d < md) {
+                    md = d;
+                    nc = c;
+                }
+            }
+            return nc;
+        }
+        int start = hint >= 0 && hint < k ? hint : 0;
+        double ds = metric.distance(centroids[start], point);
+        for (int pivot : pivots) {
+            double d = metric.distance(centroids[pivot], point);
+            if (d < ds) {
+                ds = d;
+                start = pivot;
+            }
+        }
+        int nc = start;
+        double md = ds;
+        int[] list = neighbors[start];
+        double[] bounds = neighborDistances[start];
+        for (int i = 0; i < list.length; i++) {
+            if (bounds[i] > ds + md) {
+                break;
+            }
+            int c = list[i];
+            double d = metric.distance(centroids[c], point);
+            if (d < md || (d == md && c < nc)) {
+                md = d;
+                nc = c;
+            }
+        }
+        return nc;
+    }
+
+    public void predict(double[][] points, int from, int to, int[] out) {
+        int hint = 0;
+        for (int p = from; p < to; p++) {
+            hint = out[p] = predict(points[p], hint);
+        }
+    }
+
+    public void predict(final double[][] points, final int[] out, ExecutorService executorService) {
+        if (executorService == null || points.length <= BLOCK) {
+            predict(points, 0, points.length, out);
+            return;
+        }
+        Parallel.each(points.length, BLOCK, executorService, new Parallel.Block() {
+            public void run(int b, int ps, int pe) {
+                predict(points, ps, pe, out);
+            }
+        });
+    }
+
+    public void predict(double[][] points, int[] out, long[] remaining, double[] regrets, int[] order) {
+        predict(points, 0, points.length, out, remaining, regrets, order);
+    }
+
+    public void predict(double[][] points, int from, int to, int[] out, long[] remaining, double[] regrets, int[] order) {
+        int size = to - from;
+        for (int i = 0; i < size; i++) {
+            int p = from + i;
+            double md1 = Double.POSITIVE_INFINITY;
+            double md2 = Double.POSITIVE_INFINITY;
+            int nc = -1;
+            for (int c = 0; c < k; c++) {
+                if (remaining[c] <= 0) continue;
+                double d = doubleDistanceFunction.distance(centroids[c], points[p]);
+                if (d < md1) {
+                    md2 = md1;
+                    md1 = d;
+                    nc = c;
+                } else if (d < md2) {
+                    md2 = d;
+                }
+            }
+            out[p] = nc;
+            regrets[i] = md2 - md1;
+            order[i] = i;
+        }
+        Parallel.sort(regrets, order, size);
+        for (int i = 0; i < size; i++) {
+            int p = from + order[i];
+            int nc = out[p];
+            if (nc == -1 || remaining[nc] <= 0) {
+                double md = Double.POSITIVE_INFINITY;
+                nc = -1;
+                for (int c = 0; c < k; c++) {
+                    if (remaining[c] <= 0) continue;
+                    double d = doubleDistanceFunction.distance(centroids[c], points[p]);
+                    if (d < md) {
+                        md = d;
+                        nc = c;
+                    }
+                }
+                if (nc == -1) {
+                    nc = predict(points[p]);
+                }
+            }
+            remaining[nc]--;
+            out[p] = nc;
+        }
+    }
+
+    public long[] quotas(long count) {
+        long[] quotas = new long[k];
+        long total = 0;
+        for (int c = 0; c < k; c++) {
+            total += capacities != null ? capacities[c] : 1;
+        }
+        for (int c = 0; c < k; c++) {
+            long capacity = capacities != null ? capacities[c] : 1;
+            quotas[c] = total > 0 ? (count * capacity + total - 1) / total : count;
+        }
+        return quotas;
+    }
+
+    public void save(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            save(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void save(OutputStream stream) throws IOException {
+        int kind = kind(doubleDistanceFunction);
+        if (kind == CUSTOM) {
+            throw new IOException("custom distance functions cannot be saved");
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(kind);
+        out.writeInt(k);
+        out.writeInt(dimension);
+        out.writeBoolean(capacities != null);
+        for (int c = 0; c < k; c++) {
+            if (capacities != null) {
+                out.writeInt(capacities[c]);
+            }
+            for (int d = 0; d < dimension; d++) {
+                out.writeDouble(centroids[c][d]);
+            }
+        }
+        out.flush();
+    }
+
+    public static DoubleEKmeansModel load(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return load(in, file.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    public static DoubleEKmeansModel load(InputStream stream) throws IOException {
+        return load(stream, Long.MAX_VALUE);
+    }
+
+    // the header is checked against length when it is known; otherwise the arrays grow as
+    // the centroids arrive, so a header that lies runs out of stream before it runs out of memory
+    private static DoubleEKmeansModel load(InputStream stream, long length) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a model file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported model version " + version);
+        }
+        int kind = in.readInt();
+        DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+        if (kind == EUCLIDEAN) {
+            doubleDistanceFunction = DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION;
+        } else if (kind == SQUARED_EUCLIDEAN) {
+            doubleDistanceFunction = DoubleEKmeans.SQUARED_EUCLIDEAN_DISTANCE_FUNCTION;
+        } else if (kind == MANHATTAN) {
+            doubleDistanceFunction = DoubleEKmeans.MANHATTAN_DISTANCE_FUNCTION;
+        } else {
+            throw new IOException("unknown distance function " + kind);
+        }
+        int k = in.readInt();
+        int dimension = in.readInt();
+        boolean capacity = in.readBoolean();
+        long row = 8L * dimension + (capacity ? 4 : 0);
+        if (k < 0 || dimension < 0 || (k > 0 && (row == 0 || row > (length - HEADER) / k))) {
+            throw new IOException("corrupt model file");
+        }
+        double[][] centroids = new double[Math.min(k, BLOCK)][];
+        int[] capacities = capacity ? new int[centroids.length] : null;
+        for (int c = 0; c < k; c++) {
+            if (c == centroids.length) {
+                int size = (int) Math.min(k, 2L * c);
+                double[][] grown = new double[size][];
+                System.arraycopy(centroids, 0, grown, 0, c);
+                centroids = grown;
+                if (capacities != null) {
+                    int[] more = new int[size];
+                    System.arraycopy(capacities, 0, more, 0, c);
+                    capacities = more;
+                }
+            }
+            if (capacities != null) {
+                capacities[c] = in.readInt();
+            }
+            centroids[c] = read(in, dimension);
+        }
+        return new DoubleEKmeansModel(centroids, doubleDistanceFunction, capacities);
+    }
+
+    private static double[] read(DataInputStream in, int dimension) throws IOException {
+        double[] row = new double[Math.min(dimension, BLOCK)];
+        for (int d = 0; d < dimension; d++) {
+            if (d == row.length) {
+                double[] grown = new double[(int) Math.min(dimension, 2L * d)];
+                System.arraycopy(row, 0, grown, 0, d);
+                row = grown;
+            }
+            row[d] = in.readDouble();
+        }
+        return row;
+    }
+}
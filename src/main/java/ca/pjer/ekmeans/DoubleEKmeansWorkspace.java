@@ -0,0 +1,53 @@
+package ca.pjer.ekmeans;
+
+public class DoubleEKmeansWorkspace extends DoubleEKmeans {
+
+    public static class Pool {
+
+        private final boolean equal;
+        private final boolean table;
+        private final DoubleDistanceFunction doubleDistanceFunction;
+        private final ThreadLocal<DoubleEKmeansWorkspace> workspaces = new ThreadLocal<DoubleEKmeansWorkspace>() {
+            @Override
+            protected DoubleEKmeansWorkspace initialValue() {
+                return new DoubleEKmeansWorkspace(equal, table, doubleDistanceFunction, null);
+            }
+        };
+
+        public Pool(boolean equal, boolean table, DoubleDistanceFunction doubleDistanceFunction) {
+            this.equal = equal;
+            this.table = table;
+            this.doubleDistanceFunction = doubleDistanceFunction;
+        }
+
+        public DoubleEKmeansWorkspace get() {
+            return workspaces.get();
+        }
+
+        public int run(double[][] centroids, double[][] points, int iteration, int[] assignments) {
+            DoubleEKmeansWorkspace workspace = workspaces.get();
+            workspace.reset(centroids, points);
+            return workspace.run(iteration, assignments);
+        }
+    }
+
+    private static final double[][] EMPTY = new double[0][];
+
+    public DoubleEKmeansWorkspace(boolean equal, boolean table, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        super(EMPTY, EMPTY, equal, table, doubleDistanceFunction, listener);
+    }
+
+    public void reset(double[][] centroids, double[][] points) {
+        bind(centroids, points, centroids.length, points.length);
+    }
+
+    public int run(int iteration, int[] assignments) {
+        System.arraycopy(run(iteration), 0, assignments, 0, n);
+        return n;
+    }
+
+    // run(int) returns the shared buffer, which may be longer than the bound points; only the first getCount() entries are valid
+    public int getCount() {
+        return n;
+    }
+}
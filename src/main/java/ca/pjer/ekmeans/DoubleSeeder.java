@@ -0,0 +1,216 @@
+package ca.pjer.ekmeans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+public class DoubleSeeder {
+
+    private static final int BLOCK = 4096;
+
+    private DoubleSeeder() {
+    }
+
+    public static double[][] kmeansPlusPlus(double[][] points, int k, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, long seed) {
+        return kmeansPlusPlus(points, null, k, doubleDistanceFunction, new Random(seed));
+    }
+
+    public static double[][] kmeansParallel(double[][] points, int k, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, long seed, ExecutorService executorService) {
+        return kmeansParallel(points, k, doubleDistanceFunction, seed, 5, 2d * k, executorService);
+    }
+
+    public static double[][] kmeansParallel(final double[][] points, int k, final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, final long seed, int rounds, final double oversampling, ExecutorService executorService) {
+        final int n = points.length;
+        k = Math.min(k, n);
+        if (k <= 0) {
+            return new double[0][];
+        }
+        final double[] costs = new double[n];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        final List<double[]> candidates = new ArrayList<double[]>();
+        candidates.add(points[new Random(seed).nextInt(n)]);
+        final double[] partials = new double[(n + BLOCK - 1) / BLOCK];
+        final List<List<double[]>> sampled = new ArrayList<List<double[]>>();
+        for (int b = 0; b < partials.length; b++) {
+            sampled.add(new ArrayList<double[]>());
+        }
+        int from = 0;
+        for (int round = 0; round <= rounds; round++) {
+            final int cs = from;
+            final int ce = candidates.size();
+            from = ce;
+            Parallel.each(n, BLOCK, executorService, new Parallel.Block() {
+                public void run(int b, int ps, int pe) {
+                    double s = 0;
+                    for (int p = ps; p < pe; p++) {
+                        for (int c = cs; c < ce; c++) {
+                            double d = DoubleEKmeans.cost(doubleDistanceFunction, candidates.get(c), points[p]);
+                            if (d < costs[p]) {
+                                costs[p] = d;
+                            }
+                        }
+                        s += costs[p];
+                    }
+                    partials[b] = s;
+                }
+            });
+            if (round == rounds) {
+                break;
+            }
+            double cost = 0;
+            for (double partial : partials) {
+                cost += partial;
+            }
+            if (cost <= 0) {
+                break;
+            }
+            final double scale = oversampling / cost;
+            final int r = round;
+            Parallel.each(n, BLOCK, executorService, new Parallel.Block() {
+                public void run(int b, int ps, int pe) {
+                    Random random = new Random(seed + 31L * (r + 1) + 1000003L * b);
+                    List<double[]> list = sampled.get(b);
+                    list.clear();
+                    for (int p = ps; p < pe; p++) {
+                        if (random.nextDouble() < costs[p] * scale) {
+                            list.add(points[p]);
+                        }
+                    }
+                }
+            });
+            for (List<double[]> list : sampled) {
+                candidates.addAll(list);
+            }
+        }
+        final double[][] centers = candidates.toArray(new double[candidates.size()][]);
+        final int[][] partialWeights = new int[partials.length][];
+        Parallel.each(n, BLOCK, executorService, new Parallel.Block() {
+            public void run(int b, int ps, int pe) {
+                int[] weights = new int[centers.length];
+                for (int p = ps; p < pe; p++) {
+                    double md = Double.POSITIVE_INFINITY;
+                    int nc = 0;
+                    for (int c = 0; c < centers.length; c++) {
+                        double d = doubleDistanceFunction.distance(centers[c], points[p]);
+                        if (d < md) {
+                            md = d;
+                            nc = c;
+                        }
+                    }
+                    weights[nc]++;
+                }
+                partialWeights[b] = weights;
+            }
+        });
+        double[] weights = new double[centers.length];
+        for (int[] partial : partialWeights) {
+            for (int c = 0; c < centers.length; c++) {
+                weights[c] += partial[c];
+            }
+        }
+        if (centers.length <= k) {
+            Random random = new Random(seed);
+            double[][] seeds = new double[k][];
+            for (int c = 0; c < centers.length; c++) {
+                seeds[c] = centers[c].clone();
+            }
+            for (int s = centers.length; s < k; s++) {
+                double[] next = points[pick(n, costs, null, random)];
+                seeds[s] = next.clone();
+                cost(next, points, costs, doubleDistanceFunction);
+            }
+            return seeds;
+        }
+        double[][] seeds = kmeansPlusPlus(centers, weights, k, doubleDistanceFunction, new Random(seed));
+        int[] assignments = new int[centers.length];
+        double[] sizes = new double[k];
+        for (int iteration = 0; iteration < 16; iteration++) {
+            boolean move = false;
+            for (int p = 0; p < centers.length; p++) {
+                double md = Double.POSITIVE_INFINITY;
+                int nc = 0;
+                for (int c = 0; c < k; c++) {
+                    double d = doubleDistanceFunction.distance(seeds[c], centers[p]);
+                    if (d < md) {
+                        md = d;
+                        nc = c;
+                    }
+                }
+                if (iteration == 0 || assignments[p] != nc) {
+                    assignments[p] = nc;
+                    move = true;
+                }
+            }
+            if (!move) {
+                break;
+            }
+            Arrays.fill(sizes, 0d);
+            for (int p = 0; p < centers.length; p++) {
+                sizes[assignments[p]] += weights[p];
+            }
+            for (int c = 0; c < k; c++) {
+                if (sizes[c] > 0) {
+                    Arrays.fill(seeds[c], 0d);
+                }
+            }
+            for (int p = 0; p < centers.length; p++) {
+                int c = assignments[p];
+                double[] mean = seeds[c];
+                double[] center = centers[p];
+                for (int d = 0; d < mean.length && d < center.length; d++) {
+                    mean[d] += center[d] * weights[p] / sizes[c];
+                }
+            }
+        }
+        return seeds;
+    }
+
+    private static double[][] kmeansPlusPlus(double[][] points, double[] weights, int k, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, Random random) {
+        int n = points.length;
+        double[][] seeds = new double[Math.min(k, n)][];
+        if (seeds.length == 0) {
+            return seeds;
+        }
+        double[] costs = new double[n];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        double[] last = points[pick(n, null, weights, random)];
+        for (int s = 0; s < seeds.length; s++) {
+            seeds[s] = last.clone();
+            if (s + 1 == seeds.length) {
+                break;
+            }
+            cost(last, points, costs, doubleDistanceFunction);
+            last = points[pick(n, costs, weights, random)];
+        }
+        return seeds;
+    }
+
+    private static void cost(double[] center, double[][] points, double[] costs, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction) {
+        for (int p = 0; p < points.length; p++) {
+            double d = DoubleEKmeans.cost(doubleDistanceFunction, center, points[p]);
+            if (d < costs[p]) {
+                costs[p] = d;
+            }
+        }
+    }
+
+    private static int pick(int n, double[] costs, double[] weights, Random random) {
+        double total = 0;
+        for (int p = 0; p < n; p++) {
+            total += (costs != null ? costs[p] : 1d) * (weights != null ? weights[p] : 1d);
+        }
+        if (total <= 0) {
+            return random.nextInt(n);
+        }
+        double r = random.nextDouble() * total;
+        for (int p = 0; p < n; p++) {
+            r -= (costs != null ? costs[p] : 1d) * (weights != null ? weights[p] : 1d);
+            if (r < 0) {
+                return p;
+            }
+        }
+        return n - 1;
+    }
+}
@@ -0,0 +1,458 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class DynamicDoubleEKmeans {
+
+    protected final double[][] centroids;
+    protected final boolean equal;
+    protected final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+    protected final AbstractEKmeans.Listener listener;
+    protected final int k;
+
+    protected double[][] points;
+    protected int[] assignments;
+    protected double[][] distances;
+    protected boolean[] touched;
+    protected boolean[] candidates;
+    protected int[] nexts;
+    protected int[] heap;
+    protected int[] targets;
+    protected double[] penalties;
+    protected int[] free;
+    protected int frees;
+    protected int size;
+    protected int live;
+
+    protected final double[][] sums;
+    protected final int[] counts;
+    protected final boolean[] dirty;
+    protected final boolean[] stale;
+    protected final int[] refreshed;
+    protected final boolean[] fresh;
+    protected int refreshes;
+    protected final int[] heads;
+
+    public DynamicDoubleEKmeans(double[][] centroids, double[][] points, int[] assignments, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, AbstractEKmeans.Listener listener) {
+        this.centroids = centroids;
+        this.equal = equal;
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        this.listener = listener;
+        this.k = centroids.length;
+        sums = new double[k][];
+        for (int c = 0; c < k; c++) {
+            sums[c] = new double[centroids[c].length];
+        }
+        counts = new int[k];
+        dirty = new boolean[k];
+        stale = new boolean[k];
+        Arrays.fill(stale, true);
+        refreshed = new int[k];
+        fresh = new boolean[k];
+        heads = new int[k];
+        allocate(Math.max(16, points.length));
+        for (int p = 0; p < points.length; p++) {
+            this.points[p] = points[p];
+            int c = assignments != null ? assignments[p] : -1;
+            this.assignments[p] = c;
+            touched[p] = c == -1;
+            if (c != -1) {
+                counts[c]++;
+            }
+        }
+        size = points.length;
+        live = points.length;
+    }
+
+    private void allocate(int capacity) {
+        double[][] points = new double[capacity][];
+        int[] assignments = new int[capacity];
+        boolean[] touched = new boolean[capacity];
+        int[] free = new int[capacity];
+        Arrays.fill(assignments, -1);
+        if (this.points != null) {
+            System.arraycopy(this.points, 0, points, 0, size);
+            System.arraycopy(this.assignments, 0, assignments, 0, size);
+            System.arraycopy(this.touched, 0, touched, 0, size);
+            System.arraycopy(this.free, 0, free, 0, frees);
+        }
+        double[][] distances = new double[k][capacity];
+        for (int c = 0; c < k && this.distances != null; c++) {
+            System.arraycopy(this.distances[c], 0, distances[c], 0, size);
+        }
+        this.points = points;
+        this.assignments = assignments;
+        this.touched = touched;
+        this.free = free;
+        this.distances = distances;
+        candidates = new boolean[capacity];
+        nexts = new int[capacity];
+        heap = new int[capacity];
+        targets = new int[capacity];
+        penalties = new double[capacity];
+    }
+
+    public int add(double[] point) {
+        int p;
+        if (frees > 0) {
+            p = free[--frees];
+        } else {
+            if (size == points.length) {
+                allocate(size * 2);
+            }
+            p = size++;
+        }
+        points[p] = point;
+        assignments[p] = -1;
+        touched[p] = true;
+        live++;
+        return p;
+    }
+
+    public void remove(int p) {
+        check(p);
+        int c = assignments[p];
+        if (c != -1) {
+            counts[c]--;
+            dirty[c] = true;
+        }
+        points[p] = null;
+        assignments[p] = -1;
+        touched[p] = false;
+        free[frees++] = p;
+        live--;
+    }
+
+    public void move(int p, double[] point) {
+        check(p);
+        int c = assignments[p];
+        if (c != -1) {
+            dirty[c] = true;
+        }
+        points[p] = point;
+        touched[p] = true;
+    }
+
+    private void check(int p) {
+        if (p < 0 || p >= size || points[p] == null) {
+            throw new IllegalArgumentException("no point with id " + p);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int[] getAssignments() {
+        int[] copy = new int[size];
+        System.arraycopy(assignments, 0, copy, 0, size);
+        return copy;
+    }
+
+    public double[][] getCentroids() {
+        return centroids;
+    }
+
+    public int[] run() {
+        return run(128);
+    }
+
+    public int[] run(int iteration) {
+        for (int c = 0; c < k; c++) {
+            Arrays.fill(sums[c], 0d);
+        }
+        for (int p = 0; p < size; p++) {
+            if (points[p] != null && assignments[p] != -1) {
+                add(sums[assignments[p]], points[p], 1d);
+            }
+        }
+        moveCentroids();
+        int i = 1;
+        while (true) {
+            refresh();
+            int move = equal ? makeBalancedAssignments() : makeAssignments();
+            if (listener != null) {
+                listener.iteration(i, move);
+            }
+            if (move == 0 || i++ > iteration) {
+                break;
+            }
+            moveCentroids();
+        }
+        return getAssignments();
+    }
+
+    protected void moveCentroids() {
+        for (int c = 0; c < k; c++) {
+            if (!dirty[c]) continue;
+            dirty[c] = false;
+            if (counts[c] == 0) continue;
+            double[] centroid = centroids[c];
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] = sums[c][d] / counts[c];
+            }
+            stale[c] = true;
+        }
+    }
+
+    protected void refresh() {
+        refreshes = 0;
+        for (int c = 0; c < k; c++) {
+            fresh[c] = stale[c];
+            if (!stale[c]) continue;
+            stale[c] = false;
+            refreshed[refreshes++] = c;
+            double[] row = distances[c];
+            for (int p = 0; p < size; p++) {
+                if (points[p] != null) {
+                    row[p] = doubleDistanceFunction.distance(centroids[c], points[p]);
+                }
+            }
+        }
+        for (int p = 0; p < size; p++) {
+            if (!touched[p] || points[p] == null) continue;
+            for (int c = 0; c < k; c++) {
+                if (!fresh[c]) {
+                    distances[c][p] = doubleDistanceFunction.distance(centroids[c], points[p]);
+                }
+            }
+        }
+    }
+
+    protected int makeAssignments() {
+        int move = 0;
+        for (int p = 0; p < size; p++) {
+            if (points[p] == null) continue;
+            int a = assignments[p];
+            int nc = a;
+            if (a == -1 || touched[p] || fresh[a]) {
+                nc = nearest(p);
+            } else {
+                double md = distances[a][p];
+                for (int i = 0; i < refreshes; i++) {
+                    int c = refreshed[i];
+                    double d = distances[c][p];
+                    if (d < md || (d == md && c < nc)) {
+                        md = d;
+                        nc = c;
+                    }
+                }
+            }
+            touched[p] = false;
+            if (nc != a) {
+                reassign(p, nc);
+                move++;
+            }
+        }
+        return move;
+    }
+
+    protected int makeBalancedAssignments() {
+        int move = 0;
+        for (int p = 0; p < size; p++) {
+            if (points[p] == null) continue;
+            int a = assignments[p];
+            boolean candidate = a == -1 || touched[p] || fresh[a];
+            for (int i = 0; i < refreshes && !candidate; i++) {
+                candidate = distances[refreshed[i]][p] < distances[a][p];
+            }
+            candidates[p] = candidate;
+            touched[p] = false;
+            if (a == -1) {
+                reassign(p, nearest(p));
+                move++;
+            }
+        }
+        int floor = k > 0 ? live / k : 0;
+        int ceil = k > 0 ? (live + k - 1) / k : 0;
+        members();
+        for (int a = 0; a < k; a++) {
+            if (counts[a] > ceil) {
+                move += drain(a, ceil);
+            }
+        }
+        for (int b = 0; b < k; b++) {
+            if (counts[b] < floor) {
+                move += fill(b, floor);
+            }
+        }
+        members();
+        for (int p = 0; p < size; p++) {
+            if (points[p] == null || !candidates[p]) continue;
+            int a = assignments[p];
+            int b = nearest(p);
+            if (b == a) continue;
+            double gain = distances[a][p] - distances[b][p];
+            if (gain > 0 && counts[b] < ceil && counts[a] > floor) {
+                reassign(p, b);
+                move++;
+                continue;
+            }
+            int bq = -1;
+            double bg = 0;
+            for (int q = heads[b]; q != -1; q = nexts[q]) {
+                if (assignments[q] != b) continue;
+                double g = gain + distances[b][q] - distances[a][q];
+                if (g > bg) {
+                    bg = g;
+                    bq = q;
+                }
+            }
+            if (bq != -1) {
+                reassign(p, b);
+                reassign(bq, a);
+                move += 2;
+            }
+        }
+        return move;
+    }
+
+    // moves the cheapest members of a out to clusters under the bound; a member whose
+    // target filled up in the meantime goes back in the heap with its next best target
+    private int drain(int a, int bound) {
+        int move = 0;
+        int size = 0;
+        for (int p = heads[a]; p != -1; p = nexts[p]) {
+            if (target(p, a, bound)) {
+                size = push(p, size);
+            }
+        }
+        while (counts[a] > bound && size > 0) {
+            int p = heap[0];
+            size = pop(size);
+            if (counts[targets[p]] >= bound) {
+                if (target(p, a, bound)) {
+                    size = push(p, size);
+                }
+                continue;
+            }
+            reassign(p, targets[p]);
+            move++;
+        }
+        return move;
+    }
+
+    // pulls the cheapest points into b from clusters still over the bound; the member
+    // lists miss what drain moved, so every point is scanned
+    private int fill(int b, int bound) {
+        int move = 0;
+        int size = 0;
+        for (int p = 0; p < this.size; p++) {
+            int a = assignments[p];
+            if (points[p] == null || a == -1 || a == b || counts[a] <= bound) continue;
+            penalties[p] = distances[b][p] - distances[a][p];
+            size = push(p, size);
+        }
+        while (counts[b] < bound && size > 0) {
+            int p = heap[0];
+            size = pop(size);
+            int a = assignments[p];
+            if (a == b || counts[a] <= bound) continue;
+            reassign(p, b);
+            move++;
+        }
+        return move;
+    }
+
+    private boolean target(int p, int a, int bound) {
+        double md = Double.POSITIVE_INFINITY;
+        int mc = -1;
+        for (int b = 0; b < k; b++) {
+            if (b == a || counts[b] >= bound) continue;
+            double d = distances[b][p] - distances[a][p];
+            if (d < md) {
+                md = d;
+                mc = b;
+            }
+        }
+        if (mc == -1) {
+            return false;
+        }
+        targets[p] = mc;
+        penalties[p] = md;
+        return true;
+    }
+
+    private void members() {
+        Arrays.fill(heads, -1);
+        for (int p = size - 1; p >= 0; p--) {
+            int c = assignments[p];
+            if (points[p] == null || c == -1) continue;
+            nexts[p] = heads[c];
+            heads[c] = p;
+        }
+    }
+
+    private int nearest(int p) {
+        double md = Double.POSITIVE_INFINITY;
+        int nc = -1;
+        for (int c = 0; c < k; c++) {
+            double d = distances[c][p];
+            if (d < md) {
+                md = d;
+                nc = c;
+            }
+        }
+        return nc;
+    }
+
+    private void reassign(int p, int c) {
+        int a = assignments[p];
+        if (a != -1) {
+            add(sums[a], points[p], -1d);
+            counts[a]--;
+            dirty[a] = true;
+        }
+        add(sums[c], points[p], 1d);
+        counts[c]++;
+        dirty[c] = true;
+        assignments[p] = c;
+    }
+
+    private static void add(double[] sum, double[] point, double sign) {
+        for (int d = 0; d < sum.length && d < point.length; d++) {
+            sum[d] += sign * point[d];
+        }
+    }
+
+    private boolean before(int p1, int p2) {
+        return penalties[p1] < penalties[p2] || (penalties[p1] == penalties[p2] && p1 < p2);
+    }
+
+    private int push(int p, int size) {
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(p, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = p;
+        return size;
+    }
+
+    private int pop(int size) {
+        int p = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], p)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = p;
+        }
+        return size;
+    }
+}
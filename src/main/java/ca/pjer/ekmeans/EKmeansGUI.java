@@ -26,13 +26,12 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Locale;
 import java.util.Random;
 
 public class EKmeansGUI {
 
-    private class DoubleEKmeansExt extends DoubleEKmeans {
+    private class DoubleEKmeansExt extends KdTreeDoubleEKmeans {
 
         public DoubleEKmeansExt(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
             super(centroids, points, equal, doubleDistanceFunction, listener);
@@ -175,18 +174,9 @@ public class EKmeansGUI {
                 {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY},
                 {0d, 0d}
             };
-            java.util.List points = new ArrayList();
-            java.util.List lines = new ArrayList();
-            BufferedReader reader = new BufferedReader(new FileReader(chooser.getSelectedFile()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                lines.add(line);
-                String[] pointString = line.split(",");
-                double[] point = new double[2];
-                point[X] = Double.parseDouble(pointString[X].trim());
-                point[Y] = Double.parseDouble(pointString[Y].trim());
-                System.out.println(point[X] + ", " + point[Y]);
-                points.add(point);
+            CsvLoader.Result result = new CsvLoader(new int[]{X, Y}, true).load(chooser.getSelectedFile());
+            double[][] points = result.toArray();
+            for (double[] point : points) {
                 if (point[X] < minmaxlens[MIN][X]) {
                     minmaxlens[MIN][X] = point[X];
                 }
@@ -202,10 +192,9 @@ public class EKmeansGUI {
             }
             minmaxlens[LEN][X] = minmaxlens[MAX][X] - minmaxlens[MIN][X];
             minmaxlens[LEN][Y] = minmaxlens[MAX][Y] - minmaxlens[MIN][Y];
-            reader.close();
-            this.points = (double[][]) points.toArray(new double[points.size()][]);
+            this.points = points;
             nTextField.setText(String.valueOf(this.points.length));
-            this.lines = (String[]) lines.toArray(new String[lines.size()]);
+            this.lines = result.lines;
         } catch (Exception e) {
             e.printStackTrace(System.err);
         } finally {
@@ -311,13 +300,7 @@ public class EKmeansGUI {
         } catch (NumberFormatException ignore) {
         }
         final int debug = debugTmp;
-        centroids = new double[k][2];
-        for (int i = 0; i < k; i++) {
-//            centroids[i][X] = minmaxlens[MIN][X] + (minmaxlens[LEN][X] * RANDOM.nextDouble());
-//            centroids[i][Y] = minmaxlens[MIN][Y] + (minmaxlens[LEN][Y] * RANDOM.nextDouble());
-            centroids[i][X] = minmaxlens[MIN][X] + (minmaxlens[LEN][X] / 2d);
-            centroids[i][Y] = minmaxlens[MIN][Y] + (minmaxlens[LEN][Y] / 2d);
-        }
+        centroids = DoubleSeeder.kmeansPlusPlus(points, k, DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION, RANDOM.nextLong());
         AbstractEKmeans.Listener listener = null;
         if (debug > 0) {
             listener = new AbstractEKmeans.Listener() {
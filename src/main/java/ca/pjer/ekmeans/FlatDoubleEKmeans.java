@@ -0,0 +1,178 @@
+package ca.pjer.ekmeans;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+public class FlatDoubleEKmeans extends AbstractEKmeans<Void, Void> {
+
+    public interface FlatDistanceFunction {
+
+        double distance(double[] centroids, int centroidOffset, DoubleBuffer points, int pointOffset, int dimension);
+
+    }
+
+    public static final FlatDistanceFunction EUCLIDEAN_DISTANCE_FUNCTION = new FlatDistanceFunction() {
+
+        public double distance(double[] centroids, int centroidOffset, DoubleBuffer points, int pointOffset, int dimension) {
+            double s = 0;
+            for (int d = 0; d < dimension; d++) {
+                double v = centroids[centroidOffset + d] - points.get(pointOffset + d);
+                s += v * v;
+            }
+            return Math.sqrt(s);
+        }
+    };
+
+    public static final FlatDistanceFunction SQUARED_EUCLIDEAN_DISTANCE_FUNCTION = new FlatDistanceFunction() {
+
+        public double distance(double[] centroids, int centroidOffset, DoubleBuffer points, int pointOffset, int dimension) {
+            int unrolled = dimension & ~3;
+            double s0 = 0;
+            double s1 = 0;
+            double s2 = 0;
+            double s3 = 0;
+            for (int d = 0; d < unrolled; d += 4) {
+                double v0 = centroids[centroidOffset + d] - points.get(pointOffset + d);
+                double v1 = centroids[centroidOffset + d + 1] - points.get(pointOffset + d + 1);
+                double v2 = centroids[centroidOffset + d + 2] - points.get(pointOffset + d + 2);
+                double v3 = centroids[centroidOffset + d + 3] - points.get(pointOffset + d + 3);
+                s0 += v0 * v0;
+                s1 += v1 * v1;
+                s2 += v2 * v2;
+                s3 += v3 * v3;
+            }
+            for (int d = unrolled; d < dimension; d++) {
+                double v = centroids[centroidOffset + d] - points.get(pointOffset + d);
+                s0 += v * v;
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+    };
+
+    public static final FlatDistanceFunction MANHATTAN_DISTANCE_FUNCTION = new FlatDistanceFunction() {
+
+        public double distance(double[] centroids, int centroidOffset, DoubleBuffer points, int pointOffset, int dimension) {
+            double s = 0;
+            for (int d = 0; d < dimension; d++) {
+                s += Math.abs(centroids[centroidOffset + d] - points.get(pointOffset + d));
+            }
+            return s;
+        }
+    };
+
+    protected final double[] flatCentroids;
+    protected final DoubleBuffer flatPoints;
+    protected final int dimension;
+    protected final FlatDistanceFunction flatDistanceFunction;
+    protected final ExecutorService executorService;
+    protected final int pointBlock;
+
+    protected final double[] sums;
+    protected final int[] sizes;
+    protected DoubleBuffer snapshots;
+
+    public FlatDoubleEKmeans(double[] centroids, double[] points, int dimension, boolean equal, FlatDistanceFunction flatDistanceFunction, Listener listener) {
+        this(centroids, DoubleBuffer.wrap(points), dimension, equal, true, flatDistanceFunction, listener, null, 0);
+    }
+
+    public FlatDoubleEKmeans(double[] centroids, DoubleBuffer points, int dimension, boolean equal, FlatDistanceFunction flatDistanceFunction, Listener listener) {
+        this(centroids, points, dimension, equal, true, flatDistanceFunction, listener, null, 0);
+    }
+
+    public FlatDoubleEKmeans(double[] centroids, DoubleBuffer points, int dimension, boolean equal, boolean table, FlatDistanceFunction flatDistanceFunction, Listener listener, ExecutorService executorService, int pointBlock) {
+        super(centroids.length / dimension, points.limit() / dimension, equal, table, listener);
+        this.flatCentroids = centroids;
+        this.flatPoints = points;
+        this.dimension = dimension;
+        this.flatDistanceFunction = flatDistanceFunction;
+        this.executorService = executorService;
+        this.pointBlock = Math.max(1, pointBlock);
+        sums = new double[k * dimension];
+        sizes = new int[k];
+    }
+
+    @Override
+    protected void calculateDistances() {
+        if (distances == null) {
+            super.calculateDistances();
+            return;
+        }
+        if (executorService == null) {
+            calculateDistances(0, n);
+        } else {
+            Parallel.each(n, pointBlock, executorService, new Parallel.Block() {
+                public void run(int b, int ps, int pe) {
+                    calculateDistances(ps, pe);
+                }
+            });
+        }
+        Arrays.fill(changed, false);
+    }
+
+    @Override
+    protected double distance(int c, int p) {
+        if (distances == null) {
+            return flatDistanceFunction.distance(flatCentroids, c * dimension, flatPoints, p * dimension, dimension);
+        }
+        return distances[c][p];
+    }
+
+    protected void calculateDistances(int ps, int pe) {
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            double[] row = distances[c];
+            int co = c * dimension;
+            for (int p = ps, po = ps * dimension; p < pe; p++, po += dimension) {
+                row[p] = flatDistanceFunction.distance(flatCentroids, co, flatPoints, po, dimension);
+            }
+        }
+    }
+
+    @Override
+    protected double cost(double distance) {
+        return flatDistanceFunction == SQUARED_EUCLIDEAN_DISTANCE_FUNCTION ? distance : distance * distance;
+    }
+
+    @Override
+    protected double moveCentroidsAndMeasure() {
+        if (snapshots == null) {
+            snapshots = DoubleBuffer.wrap(new double[k * dimension]);
+        }
+        for (int c = 0; c < k; c++) {
+            if (changed[c]) {
+                System.arraycopy(flatCentroids, c * dimension, snapshots.array(), c * dimension, dimension);
+            }
+        }
+        moveCentroids();
+        double max = 0;
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            max = Math.max(max, flatDistanceFunction.distance(flatCentroids, c * dimension, snapshots, c * dimension, dimension));
+        }
+        return max;
+    }
+
+    @Override
+    protected void moveCentroids() {
+        Arrays.fill(sums, 0d);
+        Arrays.fill(sizes, 0);
+        for (int p = 0, po = 0; p < n; p++, po += dimension) {
+            int c = assignments[p];
+            if (c == -1 || !changed[c]) continue;
+            int co = c * dimension;
+            int w = weight(p);
+            for (int d = 0; d < dimension; d++) {
+                sums[co + d] += w * flatPoints.get(po + d);
+            }
+            sizes[c] += w;
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c] || sizes[c] == 0) continue;
+            int co = c * dimension;
+            for (int d = 0; d < dimension; d++) {
+                flatCentroids[co + d] = sums[co + d] / sizes[c];
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class FloatEKmeans extends AbstractEKmeans<float[], float[]> {
+
+    public interface FloatDistanceFunction {
+
+        float distance(float[] p1, float[] p2);
+
+    }
+
+    public static final FloatDistanceFunction EUCLIDEAN_DISTANCE_FUNCTION = new FloatDistanceFunction() {
+
+        public float distance(float[] p1, float[] p2) {
+            return (float) Math.sqrt(SQUARED_EUCLIDEAN_DISTANCE_FUNCTION.distance(p1, p2));
+        }
+    };
+
+    public static final FloatDistanceFunction SQUARED_EUCLIDEAN_DISTANCE_FUNCTION = new FloatDistanceFunction() {
+
+        public float distance(float[] p1, float[] p2) {
+            int length = Math.min(p1.length, p2.length);
+            int unrolled = length & ~7;
+            float s0 = 0;
+            float s1 = 0;
+            float s2 = 0;
+            float s3 = 0;
+            float s4 = 0;
+            float s5 = 0;
+            float s6 = 0;
+            float s7 = 0;
+            for (int d = 0; d < unrolled; d += 8) {
+                float v0 = p1[d] - p2[d];
+                float v1 = p1[d + 1] - p2[d + 1];
+                float v2 = p1[d + 2] - p2[d + 2];
+                float v3 = p1[d + 3] - p2[d + 3];
+                float v4 = p1[d + 4] - p2[d + 4];
+                float v5 = p1[d + 5] - p2[d + 5];
+                float v6 = p1[d + 6] - p2[d + 6];
+                float v7 = p1[d + 7] - p2[d + 7];
+                s0 += v0 * v0;
+                s1 += v1 * v1;
+                s2 += v2 * v2;
+                s3 += v3 * v3;
+                s4 += v4 * v4;
+                s5 += v5 * v5;
+                s6 += v6 * v6;
+                s7 += v7 * v7;
+            }
+            for (int d = unrolled; d < length; d++) {
+                float v = p1[d] - p2[d];
+                s0 += v * v;
+            }
+            return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+        }
+    };
+
+    public static final FloatDistanceFunction MANHATTAN_DISTANCE_FUNCTION = new FloatDistanceFunction() {
+
+        public float distance(float[] p1, float[] p2) {
+            float s = 0;
+            for (int d = 0; d < p1.length && d < p2.length; d++) {
+                s += Math.abs(p1[d] - p2[d]);
+            }
+            return s;
+        }
+    };
+
+    protected static class DistanceFunction {
+
+        private final FloatDistanceFunction floatDistanceFunction;
+
+        public DistanceFunction(FloatDistanceFunction floatDistanceFunction) {
+            this.floatDistanceFunction = floatDistanceFunction;
+        }
+
+        public void distance(boolean[] changed, float[][] distances, float[][] centroids, float[][] points) {
+            for (int c = 0; c < centroids.length; c++) {
+                if (!changed[c]) continue;
+                float[] centroid = centroids[c];
+                float[] row = distances[c];
+                for (int p = 0; p < points.length; p++) {
+                    row[p] = floatDistanceFunction.distance(centroid, points[p]);
+                }
+            }
+        }
+    }
+
+    protected static class CenterFunction implements AbstractEKmeans.CenterFunction<float[], float[]> {
+
+        private double[][] sums;
+        private int[] sizes;
+
+        public void center(boolean[] changed, int[] assignments, float[][] centroids, float[][] points) {
+            if (sums == null || sums.length != centroids.length) {
+                sums = new double[centroids.length][];
+                sizes = new int[centroids.length];
+            }
+            for (int c = 0; c < centroids.length; c++) {
+                if (!changed[c]) continue;
+                if (sums[c] == null || sums[c].length != centroids[c].length) {
+                    sums[c] = new double[centroids[c].length];
+                } else {
+                    Arrays.fill(sums[c], 0d);
+                }
+                sizes[c] = 0;
+            }
+            for (int p = 0; p < points.length; p++) {
+                int c = assignments[p];
+                if (c == -1 || !changed[c]) continue;
+                double[] sum = sums[c];
+                float[] point = points[p];
+                for (int d = 0; d < sum.length && d < point.length; d++) {
+                    sum[d] += point[d];
+                }
+                sizes[c]++;
+            }
+            for (int c = 0; c < centroids.length; c++) {
+                if (!changed[c] || sizes[c] == 0) continue;
+                float[] centroid = centroids[c];
+                double[] sum = sums[c];
+                for (int d = 0; d < centroid.length; d++) {
+                    centroid[d] = (float) (sum[d] / sizes[c]);
+                }
+            }
+        }
+    }
+
+    protected final FloatDistanceFunction floatDistanceFunction;
+    protected final DistanceFunction floatTableFunction;
+    protected final float[][] floatDistances;
+    protected float[][] snapshots;
+
+    public FloatEKmeans(float[][] centroids, float[][] points, boolean equal, FloatDistanceFunction floatDistanceFunction, Listener listener) {
+        this(centroids, points, equal, true, floatDistanceFunction, listener);
+    }
+
+    public FloatEKmeans(float[][] centroids, float[][] points, boolean equal, boolean table, FloatDistanceFunction floatDistanceFunction, Listener listener) {
+        super(centroids, points, equal, table, null, new CenterFunction(), listener);
+        this.floatDistanceFunction = floatDistanceFunction;
+        if (table) {
+            floatTableFunction = new DistanceFunction(floatDistanceFunction);
+            floatDistances = new float[k][n];
+        } else {
+            floatTableFunction = null;
+            floatDistances = null;
+        }
+    }
+
+    @Override
+    protected void calculateDistances() {
+        if (floatDistances != null) {
+            floatTableFunction.distance(changed, floatDistances, centroids, points);
+        }
+        super.calculateDistances();
+    }
+
+    @Override
+    protected boolean usesDistanceTable() {
+        return false;
+    }
+
+    @Override
+    protected boolean isTabulated() {
+        return floatDistances != null;
+    }
+
+    @Override
+    protected double distance(int c, int p) {
+        if (floatDistances == null) {
+            return floatDistanceFunction.distance(centroids[c], points[p]);
+        }
+        return floatDistances[c][p];
+    }
+
+    @Override
+    protected double cost(double distance) {
+        return floatDistanceFunction == SQUARED_EUCLIDEAN_DISTANCE_FUNCTION ? distance : distance * distance;
+    }
+
+    @Override
+    protected double moveCentroidsAndMeasure() {
+        if (snapshots == null) {
+            snapshots = new float[k][];
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            if (snapshots[c] == null || snapshots[c].length != centroids[c].length) {
+                snapshots[c] = new float[centroids[c].length];
+            }
+            System.arraycopy(centroids[c], 0, snapshots[c], 0, centroids[c].length);
+        }
+        moveCentroids();
+        double max = 0;
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            max = Math.max(max, floatDistanceFunction.distance(snapshots[c], centroids[c]));
+        }
+        return max;
+    }
+}
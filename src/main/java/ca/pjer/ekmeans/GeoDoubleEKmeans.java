@@ -0,0 +1,59 @@
+package ca.pjer.ekmeans;
+
+public class GeoDoubleEKmeans extends KdTreeDoubleEKmeans {
+
+    public static final double EARTH_RADIUS = 6371.0088d;
+
+    protected final double[][] lonLatCentroids;
+
+    public GeoDoubleEKmeans(double[][] centroids, double[][] points, boolean equal, Listener listener) {
+        super(toUnitVectors(centroids), toUnitVectors(points), equal, EUCLIDEAN_DISTANCE_FUNCTION, listener);
+        this.lonLatCentroids = centroids;
+    }
+
+    public static double[][] toUnitVectors(double[][] lonLats) {
+        double[][] vectors = new double[lonLats.length][3];
+        for (int i = 0; i < lonLats.length; i++) {
+            double lon = Math.toRadians(lonLats[i][0]);
+            double lat = Math.toRadians(lonLats[i][1]);
+            double cos = Math.cos(lat);
+            vectors[i][0] = cos * Math.cos(lon);
+            vectors[i][1] = cos * Math.sin(lon);
+            vectors[i][2] = Math.sin(lat);
+        }
+        return vectors;
+    }
+
+    public static void toLonLat(double[] vector, double[] lonLat) {
+        lonLat[0] = Math.toDegrees(Math.atan2(vector[1], vector[0]));
+        lonLat[1] = Math.toDegrees(Math.atan2(vector[2], Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1])));
+    }
+
+    public static double toAngle(double chord) {
+        return 2d * Math.asin(Math.min(1d, chord / 2d));
+    }
+
+    @Override
+    public int[] run(int iteration) {
+        int[] assignments = super.run(iteration);
+        for (int c = 0; c < k; c++) {
+            toLonLat(centroids[c], lonLatCentroids[c]);
+        }
+        return assignments;
+    }
+
+    @Override
+    protected void moveCentroids() {
+        super.moveCentroids();
+        for (int c = 0; c < k; c++) {
+            if (!changed[c] || sizes[c] == 0) continue;
+            double[] centroid = centroids[c];
+            double norm = Math.sqrt(centroid[0] * centroid[0] + centroid[1] * centroid[1] + centroid[2] * centroid[2]);
+            if (norm > 0) {
+                centroid[0] /= norm;
+                centroid[1] /= norm;
+                centroid[2] /= norm;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class HamerlyDoubleEKmeans extends DoubleEKmeans {
+
+    protected final double[] upper;
+    protected final double[] lower;
+    protected final int[] bounded;
+    protected final double[] halves;
+    protected final double[] deltas;
+    protected final double[][] previous;
+
+    protected long computed;
+    protected long skipped;
+
+    public HamerlyDoubleEKmeans(double[][] centroids, double[][] points, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        super(centroids, points, false, false, doubleDistanceFunction, listener);
+        upper = new double[n];
+        lower = new double[n];
+        bounded = new int[n];
+        Arrays.fill(bounded, -1);
+        halves = new double[k];
+        deltas = new double[k];
+        previous = new double[k][];
+        for (int c = 0; c < k; c++) {
+            previous[c] = new double[centroids[c].length];
+        }
+    }
+
+    public long getComputedDistances() {
+        return computed;
+    }
+
+    public long getSkippedDistances() {
+        return skipped;
+    }
+
+    @Override
+    protected void calculateDistances() {
+        super.calculateDistances();
+        Arrays.fill(halves, Double.POSITIVE_INFINITY);
+        for (int c1 = 0; c1 < k; c1++) {
+            for (int c2 = c1 + 1; c2 < k; c2++) {
+                double d = doubleDistanceFunction.distance(centroids[c1], centroids[c2]) / 2d;
+                if (d < halves[c1]) {
+                    halves[c1] = d;
+                }
+                if (d < halves[c2]) {
+                    halves[c2] = d;
+                }
+            }
+        }
+        computed += (long) k * (k - 1) / 2;
+    }
+
+    @Override
+    protected int nearestCentroid(int p) {
+        int a = bounded[p];
+        boolean tight = false;
+        if (a != -1 && a == assignments[p]) {
+            double bound = Math.max(halves[a], lower[p]);
+            if (upper[p] < bound) {
+                skipped += k;
+                // inertia takes the upper bound here; tightening it would spend the distance the bound saved
+                record(p, upper[p]);
+                return a;
+            }
+            upper[p] = evaluate(a, p);
+            computed++;
+            tight = true;
+            if (upper[p] < bound) {
+                skipped += k - 1;
+                record(p, upper[p]);
+                return a;
+            }
+        }
+        double md1 = Double.POSITIVE_INFINITY;
+        double md2 = Double.POSITIVE_INFINITY;
+        int nc = -1;
+        for (int c = 0; c < k; c++) {
+            double d;
+            if (tight && c == a) {
+                d = upper[p];
+            } else {
+                d = evaluate(c, p);
+                computed++;
+            }
+            if (d < md1) {
+                md2 = md1;
+                md1 = d;
+                nc = c;
+            } else if (d < md2) {
+                md2 = d;
+            }
+        }
+        upper[p] = md1;
+        lower[p] = md2;
+        bounded[p] = nc;
+        record(p, md1);
+        return nc;
+    }
+
+    @Override
+    protected void moveCentroids() {
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            System.arraycopy(centroids[c], 0, previous[c], 0, previous[c].length);
+        }
+        super.moveCentroids();
+        double max1 = 0;
+        double max2 = 0;
+        int mc = -1;
+        for (int c = 0; c < k; c++) {
+            if (changed[c]) {
+                deltas[c] = doubleDistanceFunction.distance(previous[c], centroids[c]);
+                computed++;
+            } else {
+                deltas[c] = 0;
+            }
+            if (deltas[c] > max1) {
+                max2 = max1;
+                max1 = deltas[c];
+                mc = c;
+            } else if (deltas[c] > max2) {
+                max2 = deltas[c];
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            int a = bounded[p];
+            if (a == -1) continue;
+            upper[p] += deltas[a];
+            lower[p] -= a == mc ? max2 : max1;
+        }
+    }
+}
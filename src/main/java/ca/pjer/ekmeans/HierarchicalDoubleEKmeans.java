@@ -0,0 +1,270 @@
+package ca.pjer.ekmeans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+public class HierarchicalDoubleEKmeans {
+
+    protected static class Node {
+
+        protected final int[] indices;
+        protected final int offset;
+        protected final int clusters;
+        protected final int parentClusters;
+
+        protected Node(int[] indices, int offset, int clusters, int parentClusters) {
+            this.indices = indices;
+            this.offset = offset;
+            this.clusters = clusters;
+            this.parentClusters = parentClusters;
+        }
+    }
+
+    protected final double[][] points;
+    protected final int k;
+    protected final boolean equal;
+    protected final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+    protected final ExecutorService executorService;
+
+    protected int branching = 4;
+    protected int iteration = 16;
+    protected int refinement = 0;
+
+    protected final double[][] centroids;
+    protected final int[] assignments;
+    protected final int[] sizes;
+
+    public HierarchicalDoubleEKmeans(double[][] points, int k, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, ExecutorService executorService) {
+        this.points = points;
+        this.k = k;
+        this.equal = equal;
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        this.executorService = executorService;
+        int dimension = points.length > 0 ? points[0].length : 0;
+        centroids = new double[k][dimension];
+        assignments = new int[points.length];
+        sizes = new int[k];
+        int ideal = k > 0 ? points.length / k : 0;
+        for (int c = 0; c < k; c++) {
+            sizes[c] = ideal + (c < points.length - ideal * k ? 1 : 0);
+        }
+    }
+
+    public void setBranching(int branching) {
+        this.branching = Math.max(2, branching);
+    }
+
+    public void setIteration(int iteration) {
+        this.iteration = iteration;
+    }
+
+    public void setRefinement(int refinement) {
+        this.refinement = refinement;
+    }
+
+    public double[][] getCentroids() {
+        return centroids;
+    }
+
+    public int[] run(final long seed) {
+        for (double[] centroid : centroids) {
+            Arrays.fill(centroid, 0d);
+        }
+        Arrays.fill(assignments, -1);
+        if (k == 0) {
+            return assignments;
+        }
+        int[] all = new int[points.length];
+        for (int p = 0; p < all.length; p++) {
+            all[p] = p;
+        }
+        List<Node> level = new ArrayList<Node>();
+        level.add(new Node(all, 0, k, Integer.MAX_VALUE));
+        final List<Node> groups = new ArrayList<Node>();
+        while (!level.isEmpty()) {
+            // only subtrees of at most refinement clusters are refined, a refinement of k or more refines the whole tree
+            for (Node node : level) {
+                if (refinement > 1 && node.clusters > 1 && node.clusters <= refinement && node.parentClusters > refinement) {
+                    groups.add(node);
+                }
+            }
+            final List<List<Node>> children = new ArrayList<List<Node>>();
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final Node node : level) {
+                final List<Node> list = new ArrayList<Node>();
+                children.add(list);
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        split(node, seed, list);
+                        return null;
+                    }
+                });
+            }
+            Parallel.invoke(executorService, tasks);
+            level = new ArrayList<Node>();
+            for (List<Node> list : children) {
+                level.addAll(list);
+            }
+        }
+        if (!groups.isEmpty()) {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final Node group : groups) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        refine(group);
+                        return null;
+                    }
+                });
+            }
+            Parallel.invoke(executorService, tasks);
+        }
+        return assignments;
+    }
+
+    protected void split(Node node, long seed, List<Node> children) {
+        int[] indices = node.indices;
+        if (node.clusters == 1) {
+            double[] centroid = centroids[node.offset];
+            for (int p : indices) {
+                assignments[p] = node.offset;
+                for (int d = 0; d < centroid.length; d++) {
+                    centroid[d] += points[p][d];
+                }
+            }
+            if (indices.length > 0) {
+                for (int d = 0; d < centroid.length; d++) {
+                    centroid[d] /= indices.length;
+                }
+            }
+            return;
+        }
+        if (indices.length <= node.clusters) {
+            // one point per cluster, the clusters left over share the last point
+            for (int c = 0; c < node.clusters && indices.length > 0; c++) {
+                int p = indices[Math.min(c, indices.length - 1)];
+                if (c < indices.length) {
+                    assignments[p] = node.offset + c;
+                }
+                System.arraycopy(points[p], 0, centroids[node.offset + c], 0, centroids[node.offset + c].length);
+            }
+            return;
+        }
+        int b = Math.min(branching, node.clusters);
+        int[] clusters = new int[b];
+        int[] quotas = equal ? new int[b] : null;
+        if (quotas != null) {
+            for (int i = 0, offset = node.offset; i < b; i++) {
+                clusters[i] = node.clusters / b + (i < node.clusters % b ? 1 : 0);
+                for (int c = offset; c < offset + clusters[i]; c++) {
+                    quotas[i] += sizes[c];
+                }
+                offset += clusters[i];
+            }
+        }
+        double[][] sub = new double[indices.length][];
+        for (int i = 0; i < indices.length; i++) {
+            sub[i] = points[indices[i]];
+        }
+        double[][] seeds = DoubleSeeder.kmeansPlusPlus(sub, b, doubleDistanceFunction, seed + 1000003L * node.offset + node.clusters);
+        int[] local = lloyd(sub, seeds, quotas);
+        int[] counts = new int[b];
+        for (int c : local) {
+            counts[c]++;
+        }
+        if (quotas == null) {
+            clusters = share(counts, node.clusters);
+        }
+        int[][] parts = new int[b][];
+        for (int i = 0; i < b; i++) {
+            parts[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            parts[local[i]][counts[local[i]]++] = indices[i];
+        }
+        for (int i = 0, offset = node.offset; i < b; i++) {
+            if (clusters[i] > 0) {
+                children.add(new Node(parts[i], offset, clusters[i], node.clusters));
+                offset += clusters[i];
+            }
+        }
+    }
+
+    // splits the clusters between the children in proportion to their points, at least one and at most a point each
+    private static int[] share(int[] counts, int clusters) {
+        long total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        int[] shares = new int[counts.length];
+        int given = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                shares[i] = (int) Math.max(1, Math.min(counts[i], clusters * (long) counts[i] / total));
+                given += shares[i];
+            }
+        }
+        while (given != clusters) {
+            boolean add = given < clusters;
+            int best = -1;
+            double bestGap = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (add ? shares[i] >= counts[i] : shares[i] <= 1) continue;
+                double gap = (double) clusters * counts[i] / total - shares[i];
+                if (best == -1 || (add ? gap > bestGap : gap < bestGap)) {
+                    best = i;
+                    bestGap = gap;
+                }
+            }
+            shares[best] += add ? 1 : -1;
+            given += add ? 1 : -1;
+        }
+        return shares;
+    }
+
+    protected void refine(Node group) {
+        double[][] sub = new double[group.indices.length][];
+        for (int i = 0; i < sub.length; i++) {
+            sub[i] = points[group.indices[i]];
+        }
+        double[][] local = new double[group.clusters][];
+        int[] quotas = equal ? new int[group.clusters] : null;
+        for (int c = 0; c < group.clusters; c++) {
+            local[c] = centroids[group.offset + c].clone();
+            if (quotas != null) {
+                quotas[c] = sizes[group.offset + c];
+            }
+        }
+        int[] result = lloyd(sub, local, quotas);
+        double before = 0;
+        double after = 0;
+        for (int i = 0; i < sub.length; i++) {
+            before += DoubleEKmeans.cost(doubleDistanceFunction, centroids[assignments[group.indices[i]]], sub[i]);
+            after += DoubleEKmeans.cost(doubleDistanceFunction, local[result[i]], sub[i]);
+        }
+        if (after >= before) {
+            return;
+        }
+        for (int c = 0; c < group.clusters; c++) {
+            centroids[group.offset + c] = local[c];
+        }
+        for (int i = 0; i < sub.length; i++) {
+            assignments[group.indices[i]] = group.offset + result[i];
+        }
+    }
+
+    protected int[] lloyd(double[][] sub, double[][] seeds, int[] quotas) {
+        Lloyd lloyd = new Lloyd(sub, doubleDistanceFunction);
+        for (int i = 0; i <= iteration; i++) {
+            int moves = lloyd.step(seeds, quotas);
+            lloyd.center(seeds);
+            if (moves == 0) {
+                break;
+            }
+        }
+        return lloyd.assignments;
+    }
+}
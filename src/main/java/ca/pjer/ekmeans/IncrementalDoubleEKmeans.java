@@ -0,0 +1,81 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class IncrementalDoubleEKmeans extends DoubleEKmeans {
+
+    protected final double[][] sums;
+    protected final int[] sizes;
+    protected final int refresh;
+    protected int moved;
+
+    public IncrementalDoubleEKmeans(double[][] centroids, double[][] points, boolean equal, boolean table, DoubleDistanceFunction doubleDistanceFunction, Listener listener, int refresh) {
+        super(centroids, points, equal, table, doubleDistanceFunction, listener);
+        this.refresh = refresh;
+        sums = new double[k][];
+        for (int c = 0; c < k; c++) {
+            sums[c] = new double[centroids[c].length];
+        }
+        sizes = new int[k];
+    }
+
+    @Override
+    protected void move(int p, int c) {
+        int oc = assignments[p];
+        double[] point = points[p];
+        int w = weight(p);
+        if (oc != -1) {
+            double[] sum = sums[oc];
+            for (int d = 0; d < sum.length && d < point.length; d++) {
+                sum[d] -= w * point[d];
+            }
+            sizes[oc] -= w;
+        }
+        double[] sum = sums[c];
+        for (int d = 0; d < sum.length && d < point.length; d++) {
+            sum[d] += w * point[d];
+        }
+        sizes[c] += w;
+        super.move(p, c);
+    }
+
+    @Override
+    public void setWeights(int[] weights) {
+        super.setWeights(weights);
+        // sums of already assigned points were kept with the old weights
+        resum();
+    }
+
+    @Override
+    protected void moveCentroids() {
+        if (refresh > 0 && ++moved % refresh == 0) {
+            resum();
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c] || sizes[c] == 0) continue;
+            double[] centroid = centroids[c];
+            double[] sum = sums[c];
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] = sum[d] / sizes[c];
+            }
+        }
+    }
+
+    private void resum() {
+        for (int c = 0; c < k; c++) {
+            Arrays.fill(sums[c], 0d);
+        }
+        Arrays.fill(sizes, 0);
+        for (int p = 0; p < n; p++) {
+            int c = assignments[p];
+            if (c == -1) continue;
+            double[] sum = sums[c];
+            double[] point = points[p];
+            int w = weight(p);
+            for (int d = 0; d < sum.length && d < point.length; d++) {
+                sum[d] += w * point[d];
+            }
+            sizes[c] += w;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ca.pjer.ekmeans;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+public class JmxMetricsListener implements AbstractEKmeans.MetricsListener {
+
+    public interface View {
+
+        int getIteration();
+
+        int getMove();
+
+        long getDistanceTime();
+
+        long getAssignmentTime();
+
+        long getRemakeTime();
+
+        long getFillTime();
+
+        long getCenterTime();
+
+        long getEvaluations();
+
+        long getTotalEvaluations();
+
+        double getInertia();
+
+        double getMaxShift();
+
+        int getMinCount();
+
+        int getMaxCount();
+
+    }
+
+    private final ObjectName objectName;
+
+    private volatile int iteration;
+    private volatile int move;
+    private volatile long distanceTime;
+    private volatile long assignmentTime;
+    private volatile long remakeTime;
+    private volatile long fillTime;
+    private volatile long centerTime;
+    private volatile long evaluations;
+    private volatile long totalEvaluations;
+    private volatile double inertia;
+    private volatile double maxShift;
+    private volatile int minCount;
+    private volatile int maxCount;
+
+    public JmxMetricsListener(String name) throws JMException {
+        objectName = new ObjectName("ca.pjer.ekmeans:type=EKmeans,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new StandardMBean(new View() {
+            public int getIteration() {
+                return iteration;
+            }
+
+            public int getMove() {
+                return move;
+            }
+
+            public long getDistanceTime() {
+                return distanceTime;
+            }
+
+            public long getAssignmentTime() {
+                return assignmentTime;
+            }
+
+            public long getRemakeTime() {
+                return remakeTime;
+            }
+
+            public long getFillTime() {
+                return fillTime;
+            }
+
+            public long getCenterTime() {
+                return centerTime;
+            }
+
+            public long getEvaluations() {
+                return evaluations;
+            }
+
+            public long getTotalEvaluations() {
+                return totalEvaluations;
+            }
+
+            public double getInertia() {
+                return inertia;
+            }
+
+            public double getMaxShift() {
+                return maxShift;
+            }
+
+            public int getMinCount() {
+                return minCount;
+            }
+
+            public int getMaxCount() {
+                return maxCount;
+            }
+        }, View.class), objectName);
+    }
+
+    public void iteration(int iteration, int move) {
+    }
+
+    public void metrics(AbstractEKmeans.Metrics metrics) {
+        iteration = metrics.getIteration();
+        move = metrics.getMove();
+        distanceTime = metrics.getDistanceTime();
+        assignmentTime = metrics.getAssignmentTime();
+        remakeTime = metrics.getRemakeTime();
+        fillTime = metrics.getFillTime();
+        centerTime = metrics.getCenterTime();
+        evaluations = metrics.getEvaluations();
+        totalEvaluations += metrics.getEvaluations();
+        inertia = metrics.getInertia();
+        maxShift = metrics.getMaxShift();
+        minCount = metrics.getMinCount();
+        maxCount = metrics.getMaxCount();
+    }
+
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+}
@@ -0,0 +1,404 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class KdTreeDoubleEKmeans extends DoubleEKmeans {
+
+    public static final int MAX_DIMENSION = 8;
+
+    private static final int LEAF = 8;
+
+    protected final int dimension;
+
+    protected final int[] order;
+    protected final int[] nodeStarts;
+    protected final int[] nodeEnds;
+    protected final int[] nodeLefts;
+    protected final int[] nodeRights;
+    protected final double[] nodeMins;
+    protected final double[] nodeMaxs;
+    protected final double[] nodeSums;
+    protected final double[] nodeSquares;
+    protected final double[] nodeWeights;
+    protected int nodes;
+    protected final int depth;
+
+    protected final int[] candidates;
+    protected final double[] midpoint;
+    protected int moves;
+    protected double filtered;
+
+    protected final double[][] sums;
+    protected final int[] sizes;
+
+    protected final int[] centroidOrder;
+    protected final int[] centroidSplits;
+    protected int nc1;
+    protected int nc2;
+    protected double md1;
+    protected double md2;
+
+    public KdTreeDoubleEKmeans(double[][] centroids, double[][] points, boolean equal, DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        super(centroids, points, equal, false, doubleDistanceFunction, listener);
+        if (!supports(doubleDistanceFunction)) {
+            throw new IllegalArgumentException("the k-d tree engine requires an euclidean distance function");
+        }
+        dimension = points.length > 0 ? points[0].length : 0;
+        int capacity = Math.max(1, 2 * ((n + LEAF - 1) / LEAF) * 2);
+        order = new int[n];
+        for (int p = 0; p < n; p++) {
+            order[p] = p;
+        }
+        nodeStarts = new int[capacity];
+        nodeEnds = new int[capacity];
+        nodeLefts = new int[capacity];
+        nodeRights = new int[capacity];
+        nodeMins = new double[capacity * dimension];
+        nodeMaxs = new double[capacity * dimension];
+        nodeSums = new double[capacity * dimension];
+        nodeSquares = new double[capacity];
+        nodeWeights = new double[capacity];
+        depth = build(0, n, 0);
+        candidates = new int[k * (depth + 2)];
+        midpoint = new double[dimension];
+        centroidOrder = new int[k];
+        centroidSplits = new int[k];
+        sums = new double[k][dimension];
+        sizes = new int[k];
+    }
+
+    public static boolean supports(DoubleDistanceFunction doubleDistanceFunction) {
+        return doubleDistanceFunction == EUCLIDEAN_DISTANCE_FUNCTION || doubleDistanceFunction == SQUARED_EUCLIDEAN_DISTANCE_FUNCTION;
+    }
+
+    public static boolean supports(double[][] points, DoubleDistanceFunction doubleDistanceFunction) {
+        return supports(doubleDistanceFunction) && points.length > 0 && points[0].length <= MAX_DIMENSION;
+    }
+
+    private int build(int start, int end, int level) {
+        int node = nodes++;
+        nodeStarts[node] = start;
+        nodeEnds[node] = end;
+        nodeLefts[node] = -1;
+        nodeRights[node] = -1;
+        int base = node * dimension;
+        Arrays.fill(nodeMins, base, base + dimension, Double.POSITIVE_INFINITY);
+        Arrays.fill(nodeMaxs, base, base + dimension, Double.NEGATIVE_INFINITY);
+        for (int i = start; i < end; i++) {
+            double[] point = points[order[i]];
+            for (int d = 0; d < dimension; d++) {
+                nodeMins[base + d] = Math.min(nodeMins[base + d], point[d]);
+                nodeMaxs[base + d] = Math.max(nodeMaxs[base + d], point[d]);
+            }
+        }
+        summarize(node);
+        if (end - start <= LEAF) {
+            return level;
+        }
+        int split = 0;
+        for (int d = 1; d < dimension; d++) {
+            if (nodeMaxs[base + d] - nodeMins[base + d] > nodeMaxs[base + split] - nodeMins[base + split]) {
+                split = d;
+            }
+        }
+        if (nodeMaxs[base + split] <= nodeMins[base + split]) {
+            return level;
+        }
+        int middle = (start + end) >>> 1;
+        select(order, start, end, middle, split, points);
+        nodeLefts[node] = nodes;
+        int left = build(start, middle, level + 1);
+        nodeRights[node] = nodes;
+        int right = build(middle, end, level + 1);
+        return Math.max(left, right);
+    }
+
+    private void summarize(int node) {
+        int base = node * dimension;
+        Arrays.fill(nodeSums, base, base + dimension, 0d);
+        nodeSquares[node] = 0;
+        nodeWeights[node] = 0;
+        for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+            int p = order[i];
+            double[] point = points[p];
+            int w = weight(p);
+            for (int d = 0; d < dimension; d++) {
+                nodeSums[base + d] += w * point[d];
+                nodeSquares[node] += w * point[d] * point[d];
+            }
+            nodeWeights[node] += w;
+        }
+    }
+
+    @Override
+    public void setWeights(int[] weights) {
+        super.setWeights(weights);
+        // the node sums behind the filtered inertia are weighted too
+        for (int node = 0; node < nodes; node++) {
+            summarize(node);
+        }
+    }
+
+    private static void select(int[] order, int start, int end, int nth, int d, double[][] points) {
+        int lo = start;
+        int hi = end - 1;
+        while (lo < hi) {
+            double pivot = points[order[(lo + hi) >>> 1]][d];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (points[order[i]][d] < pivot) i++;
+                while (points[order[j]][d] > pivot) j--;
+                if (i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                hi = j;
+            } else if (nth >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void calculateDistances() {
+        super.calculateDistances();
+        if (equal) {
+            for (int c = 0; c < k; c++) {
+                centroidOrder[c] = c;
+            }
+            buildCentroids(0, k);
+        }
+    }
+
+    @Override
+    protected int makeAssignments() {
+        if (equal || n == 0 || k == 0) {
+            return super.makeAssignments();
+        }
+        Arrays.fill(counts, 0);
+        moves = 0;
+        filtered = 0;
+        for (int c = 0; c < k; c++) {
+            candidates[c] = c;
+        }
+        filter(0, 0, k);
+        return moves;
+    }
+
+    private void filter(int node, int offset, int count) {
+        if (count == 1) {
+            int c = candidates[offset];
+            for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+                assign(order[i], c);
+            }
+            if (measuring) {
+                double[] centroid = centroids[c];
+                double size = nodeWeights[node];
+                int base = node * dimension;
+                double s = nodeSquares[node];
+                for (int d = 0; d < dimension; d++) {
+                    s += centroid[d] * (size * centroid[d] - 2d * nodeSums[base + d]);
+                }
+                filtered += Math.max(0d, s);
+            }
+            return;
+        }
+        if (nodeLefts[node] == -1) {
+            for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+                int p = order[i];
+                double[] point = points[p];
+                double md = Double.POSITIVE_INFINITY;
+                int nc = -1;
+                for (int j = offset; j < offset + count; j++) {
+                    int c = candidates[j];
+                    double d = squared(centroids[c], point);
+                    if (d < md) {
+                        md = d;
+                        nc = c;
+                    }
+                }
+                assign(p, nc);
+                filtered += md * weight(p);
+            }
+            if (metrics != null) {
+                metrics.evaluations += (long) count * (nodeEnds[node] - nodeStarts[node]);
+            }
+            return;
+        }
+        int base = node * dimension;
+        for (int d = 0; d < dimension; d++) {
+            midpoint[d] = (nodeMins[base + d] + nodeMaxs[base + d]) / 2d;
+        }
+        double md = Double.POSITIVE_INFINITY;
+        int best = -1;
+        for (int j = offset; j < offset + count; j++) {
+            int c = candidates[j];
+            double d = squared(centroids[c], midpoint);
+            if (d < md) {
+                md = d;
+                best = c;
+            }
+        }
+        double[] z = centroids[best];
+        int next = offset + count;
+        int kept = 0;
+        for (int j = offset; j < offset + count; j++) {
+            int c = candidates[j];
+            if (c == best || !dominated(centroids[c], z, base)) {
+                candidates[next + kept++] = c;
+            }
+        }
+        if (metrics != null) {
+            metrics.evaluations += 2L * count;
+        }
+        filter(nodeLefts[node], next, kept);
+        filter(nodeRights[node], next, kept);
+    }
+
+    private boolean dominated(double[] candidate, double[] z, int base) {
+        double s = 0;
+        for (int d = 0; d < dimension; d++) {
+            double v = candidate[d] > z[d] ? nodeMaxs[base + d] : nodeMins[base + d];
+            double a = candidate[d] - v;
+            double b = z[d] - v;
+            s += a * a - b * b;
+        }
+        return s > 0;
+    }
+
+    @Override
+    protected double inertia() {
+        if (equal || n == 0 || k == 0) {
+            return super.inertia();
+        }
+        return filtered;
+    }
+
+    private void assign(int p, int c) {
+        if (assignments[p] != c) {
+            move(p, c);
+            moves++;
+        }
+        counts[c] += weight(p);
+    }
+
+    @Override
+    protected void moveCentroids() {
+        for (int c = 0; c < k; c++) {
+            Arrays.fill(sums[c], 0d);
+        }
+        Arrays.fill(sizes, 0);
+        for (int p = 0; p < n; p++) {
+            int c = assignments[p];
+            if (c == -1 || !changed[c]) continue;
+            double[] sum = sums[c];
+            double[] point = points[p];
+            int w = weight(p);
+            for (int d = 0; d < dimension; d++) {
+                sum[d] += w * point[d];
+            }
+            sizes[c] += w;
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c] || sizes[c] == 0) continue;
+            double[] centroid = centroids[c];
+            for (int d = 0; d < dimension; d++) {
+                centroid[d] = sums[c][d] / sizes[c];
+            }
+        }
+    }
+
+    private void buildCentroids(int start, int end) {
+        if (end - start <= 1) {
+            return;
+        }
+        int split = 0;
+        double spread = -1;
+        for (int d = 0; d < dimension; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                double v = centroids[centroidOrder[i]][d];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            if (max - min > spread) {
+                spread = max - min;
+                split = d;
+            }
+        }
+        int middle = (start + end) >>> 1;
+        select(centroidOrder, start, end, middle, split, centroids);
+        centroidSplits[middle] = split;
+        buildCentroids(start, middle);
+        buildCentroids(middle + 1, end);
+    }
+
+    @Override
+    protected void nearestCentroids(int p) {
+        if (passes[p] == pass) {
+            return;
+        }
+        nc1 = -1;
+        nc2 = -1;
+        md1 = Double.POSITIVE_INFINITY;
+        md2 = Double.POSITIVE_INFINITY;
+        search(points[p], 0, k);
+        firsts[p] = nc1;
+        firstDistances[p] = nc1 != -1 ? evaluate(nc1, p) : Double.POSITIVE_INFINITY;
+        seconds[p] = nc2;
+        secondDistances[p] = nc2 != -1 ? evaluate(nc2, p) : Double.POSITIVE_INFINITY;
+        passes[p] = pass;
+    }
+
+    private void search(double[] point, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        int middle = (start + end) >>> 1;
+        int c = centroidOrder[middle];
+        double d = squared(centroids[c], point);
+        if (d < md1 || (d == md1 && c < nc1)) {
+            md2 = md1;
+            nc2 = nc1;
+            md1 = d;
+            nc1 = c;
+        } else if (d < md2 || (d == md2 && c < nc2)) {
+            md2 = d;
+            nc2 = c;
+        }
+        if (end - start == 1) {
+            return;
+        }
+        int split = centroidSplits[middle];
+        double diff = point[split] - centroids[c][split];
+        if (diff < 0) {
+            search(point, start, middle);
+            if (diff * diff <= md2) {
+                search(point, middle + 1, end);
+            }
+        } else {
+            search(point, middle + 1, end);
+            if (diff * diff <= md2) {
+                search(point, start, middle);
+            }
+        }
+    }
+
+    private double squared(double[] centroid, double[] point) {
+        double s = 0;
+        for (int d = 0; d < dimension; d++) {
+            double v = centroid[d] - point[d];
+            s += v * v;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,131 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+final class Lloyd {
+
+    final double[][] points;
+    final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+    final int[] assignments;
+    private final int[] nearests;
+    private final double[] nearestDistances;
+    private final double[] distances;
+    private final double[] regrets;
+    private final int[] order;
+
+    double[][] sums;
+    int[] counts;
+    int[] demands;
+    double inertia;
+
+    Lloyd(double[][] points, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction) {
+        this.points = points;
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        assignments = new int[points.length];
+        Arrays.fill(assignments, -1);
+        nearests = new int[points.length];
+        nearestDistances = new double[points.length];
+        distances = new double[points.length];
+        regrets = new double[points.length];
+        order = new int[points.length];
+    }
+
+    // assigns every point, within quotas when given, and sums the clusters; returns the moves
+    int step(double[][] centroids, int[] quotas) {
+        int k = centroids.length;
+        int dimension = k > 0 ? centroids[0].length : 0;
+        demands = new int[k];
+        for (int p = 0; p < points.length; p++) {
+            double md1 = Double.POSITIVE_INFINITY;
+            double md2 = Double.POSITIVE_INFINITY;
+            int nc = -1;
+            for (int c = 0; c < k; c++) {
+                double d = doubleDistanceFunction.distance(centroids[c], points[p]);
+                if (d < md1) {
+                    md2 = md1;
+                    md1 = d;
+                    nc = c;
+                } else if (d < md2) {
+                    md2 = d;
+                }
+            }
+            nearests[p] = nc;
+            nearestDistances[p] = md1;
+            regrets[p] = md2 - md1;
+            if (nc != -1) {
+                demands[nc]++;
+            }
+        }
+        int moves = 0;
+        if (quotas == null) {
+            for (int p = 0; p < points.length; p++) {
+                distances[p] = nearestDistances[p];
+                if (assignments[p] != nearests[p]) {
+                    assignments[p] = nearests[p];
+                    moves++;
+                }
+            }
+        } else {
+            int[] remaining = quotas.clone();
+            int size = points.length;
+            for (int p = 0; p < size; p++) {
+                order[p] = p;
+            }
+            Parallel.sort(regrets, order, size);
+            for (int i = 0; i < points.length; i++) {
+                int p = order[i];
+                int nc = nearests[p];
+                distances[p] = nearestDistances[p];
+                if (nc == -1 || remaining[nc] <= 0) {
+                    double md = Double.POSITIVE_INFINITY;
+                    nc = -1;
+                    for (int c = 0; c < k; c++) {
+                        if (remaining[c] <= 0) continue;
+                        double d = doubleDistanceFunction.distance(centroids[c], points[p]);
+                        if (d < md) {
+                            md = d;
+                            nc = c;
+                        }
+                    }
+                    if (nc == -1) {
+                        nc = nearests[p];
+                    } else {
+                        distances[p] = md;
+                    }
+                }
+                if (nc != -1) {
+                    remaining[nc]--;
+                }
+                if (assignments[p] != nc) {
+                    assignments[p] = nc;
+                    moves++;
+                }
+            }
+        }
+        sums = new double[k][dimension];
+        counts = new int[k];
+        inertia = 0;
+        for (int p = 0; p < points.length; p++) {
+            int c = assignments[p];
+            if (c == -1) continue;
+            double[] sum = sums[c];
+            double[] point = points[p];
+            for (int d = 0; d < dimension && d < point.length; d++) {
+                sum[d] += point[d];
+            }
+            counts[c]++;
+            inertia += DoubleEKmeans.cost(doubleDistanceFunction, distances[p]);
+        }
+        return moves;
+    }
+
+    // moves each centroid that got points to the mean of the last step
+    void center(double[][] centroids) {
+        for (int c = 0; c < centroids.length; c++) {
+            if (counts[c] == 0) continue;
+            for (int d = 0; d < centroids[c].length; d++) {
+                centroids[c][d] = sums[c][d] / counts[c];
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class MappedDoubleEKmeans extends AbstractEKmeans<Void, Void> {
+
+    protected final double[][] mappedCentroids;
+    protected final PointFile pointFile;
+    protected final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+
+    protected final double[] point;
+    protected int loaded = -1;
+    protected final double[][] sums;
+    protected final int[] sizes;
+    protected double[][] snapshots;
+
+    public MappedDoubleEKmeans(double[][] centroids, PointFile points, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, Listener listener) {
+        super(centroids.length, points.getCount(), equal, false, listener);
+        this.mappedCentroids = centroids;
+        this.pointFile = points;
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        point = new double[points.getDimension()];
+        sums = new double[k][];
+        for (int c = 0; c < k; c++) {
+            sums[c] = new double[centroids[c].length];
+        }
+        sizes = new int[k];
+    }
+
+    protected double[] load(int p) {
+        if (loaded != p) {
+            pointFile.read(p, point);
+            loaded = p;
+        }
+        return point;
+    }
+
+    @Override
+    protected double distance(int c, int p) {
+        return doubleDistanceFunction.distance(mappedCentroids[c], load(p));
+    }
+
+    @Override
+    protected double cost(double distance) {
+        return doubleDistanceFunction == DoubleEKmeans.SQUARED_EUCLIDEAN_DISTANCE_FUNCTION ? distance : distance * distance;
+    }
+
+    @Override
+    protected double moveCentroidsAndMeasure() {
+        if (snapshots == null) {
+            snapshots = new double[k][];
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            if (snapshots[c] == null) {
+                snapshots[c] = new double[mappedCentroids[c].length];
+            }
+            System.arraycopy(mappedCentroids[c], 0, snapshots[c], 0, mappedCentroids[c].length);
+        }
+        moveCentroids();
+        double max = 0;
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            max = Math.max(max, doubleDistanceFunction.distance(snapshots[c], mappedCentroids[c]));
+        }
+        return max;
+    }
+
+    @Override
+    protected void moveCentroids() {
+        for (int c = 0; c < k; c++) {
+            Arrays.fill(sums[c], 0d);
+        }
+        Arrays.fill(sizes, 0);
+        for (int p = 0; p < n; p++) {
+            int c = assignments[p];
+            if (c == -1 || !changed[c]) continue;
+            double[] point = load(p);
+            double[] sum = sums[c];
+            int w = weight(p);
+            for (int d = 0; d < sum.length && d < point.length; d++) {
+                sum[d] += w * point[d];
+            }
+            sizes[c] += w;
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c] || sizes[c] == 0) continue;
+            double[] centroid = mappedCentroids[c];
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] = sums[c][d] / sizes[c];
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ca.pjer.ekmeans;
+
+public abstract class MetricsAdapter implements AbstractEKmeans.MetricsListener {
+
+    protected final String prefix;
+
+    protected MetricsAdapter(String prefix) {
+        this.prefix = prefix;
+    }
+
+    protected abstract void record(String name, double value);
+
+    public void iteration(int iteration, int move) {
+    }
+
+    public void metrics(AbstractEKmeans.Metrics metrics) {
+        record(prefix + "iteration", metrics.getIteration());
+        record(prefix + "move", metrics.getMove());
+        record(prefix + "distance.time", metrics.getDistanceTime());
+        record(prefix + "assignment.time", metrics.getAssignmentTime());
+        record(prefix + "remake.time", metrics.getRemakeTime());
+        record(prefix + "fill.time", metrics.getFillTime());
+        record(prefix + "center.time", metrics.getCenterTime());
+        record(prefix + "evaluations", metrics.getEvaluations());
+        record(prefix + "inertia", metrics.getInertia());
+        record(prefix + "shift.max", metrics.getMaxShift());
+        record(prefix + "count.min", metrics.getMinCount());
+        record(prefix + "count.max", metrics.getMaxCount());
+    }
+}
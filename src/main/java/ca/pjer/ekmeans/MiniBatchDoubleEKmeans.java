@@ -0,0 +1,174 @@
+package ca.pjer.ekmeans;
+
+import java.util.Iterator;
+
+public class MiniBatchDoubleEKmeans {
+
+    public interface Sink {
+
+        void assignment(long point, int centroid);
+
+    }
+
+    protected final double[][] centroids;
+    protected final boolean equal;
+    protected final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+    protected final int k;
+    protected final int batchSize;
+
+    protected final long[] rates;
+    protected final double[][] batch;
+    protected final int[] batchAssignments;
+    protected final double[] regrets;
+    protected final int[] order;
+    protected final long[] capacities;
+    protected final long[] quotas;
+
+    public MiniBatchDoubleEKmeans(double[][] centroids, int batchSize, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction) {
+        this.centroids = centroids;
+        this.equal = equal;
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        this.k = centroids.length;
+        this.batchSize = batchSize;
+        rates = new long[k];
+        batch = new double[batchSize][];
+        batchAssignments = new int[batchSize];
+        regrets = new double[batchSize];
+        order = new int[batchSize];
+        capacities = new long[k];
+        quotas = new long[k];
+    }
+
+    public int train(Iterator<double[]> points, int iteration) {
+        int i = 0;
+        while (i < iteration) {
+            int size = fill(points);
+            if (size == 0) {
+                break;
+            }
+            if (equal) {
+                for (int c = 0; c < k; c++) {
+                    capacities[c] = (size + k - 1) / k;
+                }
+                assignBalanced(size, size);
+            } else {
+                for (int p = 0; p < size; p++) {
+                    batchAssignments[p] = nearestCentroid(batch[p]);
+                }
+            }
+            for (int p = 0; p < size; p++) {
+                int c = batchAssignments[p];
+                double[] centroid = centroids[c];
+                double[] point = batch[p];
+                double eta = 1d / ++rates[c];
+                for (int d = 0; d < centroid.length && d < point.length; d++) {
+                    centroid[d] += eta * (point[d] - centroid[d]);
+                }
+            }
+            i++;
+            if (size < batchSize) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    public long assign(Iterator<double[]> points, long count, Sink sink) {
+        if (equal) {
+            long ideal = k > 0 ? count / k : 0;
+            long extra = count - ideal * k;
+            for (int c = 0; c < k; c++) {
+                capacities[c] = ideal + (c < extra ? 1 : 0);
+            }
+        }
+        long index = 0;
+        while (true) {
+            int size = fill(points);
+            if (size == 0) {
+                break;
+            }
+            if (equal) {
+                assignBalanced(size, count - index);
+            } else {
+                for (int p = 0; p < size; p++) {
+                    batchAssignments[p] = nearestCentroid(batch[p]);
+                }
+            }
+            for (int p = 0; p < size; p++) {
+                sink.assignment(index++, batchAssignments[p]);
+            }
+            if (size < batchSize) {
+                break;
+            }
+        }
+        return index;
+    }
+
+    protected int fill(Iterator<double[]> points) {
+        int size = 0;
+        while (size < batchSize && points.hasNext()) {
+            double[] point = points.next();
+            if (batch[size] == null || batch[size].length != point.length) {
+                batch[size] = new double[point.length];
+            }
+            System.arraycopy(point, 0, batch[size], 0, point.length);
+            size++;
+        }
+        return size;
+    }
+
+    protected int nearestCentroid(double[] point) {
+        double md = Double.POSITIVE_INFINITY;
+        int nc = -1;
+        for (int c = 0; c < k; c++) {
+            double d = doubleDistanceFunction.distance(centroids[c], point);
+            if (d < md) {
+                md = d;
+                nc = c;
+            }
+        }
+        return nc;
+    }
+
+    protected void assignBalanced(int size, long remaining) {
+        for (int c = 0; c < k; c++) {
+            quotas[c] = remaining > size ? (capacities[c] * size + remaining - 1) / remaining : capacities[c];
+        }
+        for (int p = 0; p < size; p++) {
+            double md1 = Double.POSITIVE_INFINITY;
+            double md2 = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < k; c++) {
+                if (quotas[c] <= 0) continue;
+                double d = doubleDistanceFunction.distance(centroids[c], batch[p]);
+                if (d < md1) {
+                    md2 = md1;
+                    md1 = d;
+                } else if (d < md2) {
+                    md2 = d;
+                }
+            }
+            regrets[p] = md2 - md1;
+            order[p] = p;
+        }
+        Parallel.sort(regrets, order, size);
+        for (int i = 0; i < size; i++) {
+            int p = order[i];
+            double md = Double.POSITIVE_INFINITY;
+            int nc = -1;
+            for (int c = 0; c < k; c++) {
+                if (quotas[c] <= 0) continue;
+                double d = doubleDistanceFunction.distance(centroids[c], batch[p]);
+                if (d < md) {
+                    md = d;
+                    nc = c;
+                }
+            }
+            if (nc == -1) {
+                nc = nearestCentroid(batch[p]);
+            }
+            quotas[nc]--;
+            capacities[nc]--;
+            batchAssignments[p] = nc;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ca.pjer.ekmeans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+public class MultiStartDoubleEKmeans {
+
+    public static class Result {
+
+        public final double[][] centroids;
+        public final int[] assignments;
+        public final double inertia;
+        public final int restart;
+        public final int abandoned;
+
+        public Result(double[][] centroids, int[] assignments, double inertia, int restart, int abandoned) {
+            this.centroids = centroids;
+            this.assignments = assignments;
+            this.inertia = inertia;
+            this.restart = restart;
+            this.abandoned = abandoned;
+        }
+    }
+
+    protected final double[][] points;
+    protected final int k;
+    protected final boolean equal;
+    protected final DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction;
+    protected final ExecutorService executorService;
+    protected final long budget;
+
+    protected int grace = 3;
+    protected double abandon = 1.25d;
+
+    private volatile double bestInertia;
+    private double[][] bestCentroids;
+    private int[] bestAssignments;
+    private int bestRestart;
+    private int abandoned;
+
+    public MultiStartDoubleEKmeans(double[][] points, int k, boolean equal, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction, ExecutorService executorService, long budget) {
+        this.points = points;
+        this.k = k;
+        this.equal = equal;
+        this.doubleDistanceFunction = doubleDistanceFunction;
+        this.executorService = executorService;
+        this.budget = budget;
+    }
+
+    public void setAbandon(int grace, double abandon) {
+        this.grace = grace;
+        this.abandon = abandon;
+    }
+
+    public Result run(int restarts, final long seed, final int iteration) {
+        bestInertia = Double.POSITIVE_INFINITY;
+        bestCentroids = null;
+        bestAssignments = null;
+        bestRestart = -1;
+        abandoned = 0;
+        long table = 8L * k * points.length;
+        final Semaphore tables = new Semaphore((int) Math.min(Integer.MAX_VALUE, table > 0 ? budget / table : 0));
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int r = 0; r < restarts; r++) {
+            final int restart = r;
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    boolean acquired = tables.tryAcquire();
+                    try {
+                        restart(restart, seed + restart, iteration, acquired);
+                    } finally {
+                        if (acquired) {
+                            tables.release();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        Parallel.invoke(executorService, tasks);
+        synchronized (this) {
+            return new Result(bestCentroids, bestAssignments, bestInertia, bestRestart, abandoned);
+        }
+    }
+
+    protected void restart(int restart, long seed, int iteration, boolean table) {
+        double[][] centroids = DoubleSeeder.kmeansPlusPlus(points, k, doubleDistanceFunction, seed);
+        final DoubleEKmeans[] holder = new DoubleEKmeans[1];
+        AbstractEKmeans.MetricsListener listener = new AbstractEKmeans.MetricsListener() {
+            public void iteration(int iteration, int move) {
+            }
+
+            public void metrics(AbstractEKmeans.Metrics metrics) {
+                if (metrics.getIteration() >= grace && metrics.getInertia() > bestInertia * abandon) {
+                    holder[0].cancel();
+                }
+            }
+        };
+        DoubleEKmeans eKmeans;
+        if (KdTreeDoubleEKmeans.supports(points, doubleDistanceFunction)) {
+            eKmeans = new KdTreeDoubleEKmeans(centroids, points, equal, doubleDistanceFunction, listener);
+        } else {
+            eKmeans = new DoubleEKmeans(centroids, points, equal, table, doubleDistanceFunction, listener);
+        }
+        holder[0] = eKmeans;
+        int[] assignments = eKmeans.run(iteration);
+        if (eKmeans.isCancelled()) {
+            synchronized (this) {
+                abandoned++;
+            }
+            return;
+        }
+        double inertia = 0;
+        for (int p = 0; p < points.length; p++) {
+            if (assignments[p] != -1) {
+                inertia += DoubleEKmeans.cost(doubleDistanceFunction, centroids[assignments[p]], points[p]);
+            }
+        }
+        synchronized (this) {
+            if (inertia < bestInertia || (inertia == bestInertia && restart < bestRestart)) {
+                bestInertia = inertia;
+                bestCentroids = centroids;
+                bestAssignments = assignments;
+                bestRestart = restart;
+            }
+        }
+    }
+}
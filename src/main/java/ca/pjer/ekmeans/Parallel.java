@@ -0,0 +1,135 @@
+package ca.pjer.ekmeans;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+final class Parallel {
+
+    interface Block {
+
+        void run(int b, int ps, int pe);
+
+    }
+
+    private Parallel() {
+    }
+
+    // runs the tasks on the executor, or in the calling thread when there is none
+    static <T> void invoke(ExecutorService executorService, List<? extends Callable<T>> tasks) {
+        if (executorService == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    task.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<T> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // same as invoke, but lets an IOException from a task through as is
+    static <T> void invokeIO(ExecutorService executorService, List<? extends Callable<T>> tasks) throws IOException {
+        if (executorService == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<T> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for tasks");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // splits [0, n) in blocks of the given size and runs each one as a task
+    static void each(int n, int block, ExecutorService executorService, final Block task) {
+        int blocks = (n + block - 1) / block;
+        if (executorService == null) {
+            for (int b = 0; b < blocks; b++) {
+                task.run(b, b * block, Math.min(n, (b + 1) * block));
+            }
+            return;
+        }
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int b = 0; b < blocks; b++) {
+            final int fb = b;
+            final int ps = b * block;
+            final int pe = Math.min(n, (b + 1) * block);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    task.run(fb, ps, pe);
+                    return null;
+                }
+            });
+        }
+        invoke(executorService, tasks);
+    }
+
+    // heap sorts the first size indices of order by decreasing regret
+    static void sort(double[] regrets, int[] order, int size) {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            sift(regrets, order, i, size);
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int p = order[0];
+            order[0] = order[i];
+            order[i] = p;
+            sift(regrets, order, 0, i);
+        }
+    }
+
+    private static void sift(double[] regrets, int[] order, int i, int size) {
+        int p = order[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && regrets[order[child + 1]] < regrets[order[child]]) {
+                child++;
+            }
+            if (regrets[order[child]] >= regrets[p]) {
+                break;
+            }
+            order[i] = order[child];
+            i = child;
+        }
+        order[i] = p;
+    }
+}
@@ -0,0 +1,189 @@
+package ca.pjer.ekmeans;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class PointFile implements Closeable {
+
+    public static final int MAGIC = 0x504D4B45;
+    public static final int DOUBLE = 8;
+    public static final int FLOAT = 4;
+    public static final int HEADER = 24;
+
+    private static final int SEGMENT = 1 << 30;
+
+    public static class AssignmentWriter implements MiniBatchDoubleEKmeans.Sink, Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        public AssignmentWriter(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            boolean opened = false;
+            try {
+                raf.setLength(0);
+                channel = raf.getChannel();
+                buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+                opened = true;
+            } finally {
+                if (!opened) {
+                    raf.close();
+                }
+            }
+        }
+
+        public void assignment(long point, int centroid) {
+            try {
+                write(centroid);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void write(int centroid) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putInt(centroid);
+        }
+
+        public void write(int[] assignments, int length) throws IOException {
+            for (int p = 0; p < length; p++) {
+                write(assignments[p]);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    private final FileChannel channel;
+    private final int count;
+    private final int dimension;
+    private final int type;
+    private final MappedByteBuffer[] segments;
+    private final int shift;
+    private final int mask;
+
+    public PointFile(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        boolean mapped = false;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+                throw new IOException("not a point file: " + file);
+            }
+            type = header.getInt();
+            long n = header.getLong();
+            dimension = header.getInt();
+            if ((type != DOUBLE && type != FLOAT) || n < 0 || n > Integer.MAX_VALUE || dimension <= 0 || channel.size() < HEADER + n * dimension * type) {
+                throw new IOException("corrupt point file: " + file);
+            }
+            count = (int) n;
+            int s = 0;
+            while ((2L << s) * dimension * type <= SEGMENT) {
+                s++;
+            }
+            shift = s;
+            mask = (1 << s) - 1;
+            int length = (int) ((n + mask) >>> s);
+            segments = new MappedByteBuffer[length];
+            for (int i = 0; i < length; i++) {
+                long first = (long) i << s;
+                long size = Math.min(n - first, 1L << s) * dimension * type;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * dimension * type, size);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            mapped = true;
+        } finally {
+            if (!mapped) {
+                channel.close();
+            }
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void read(int p, double[] point) {
+        ByteBuffer segment = segments[p >>> shift];
+        int offset = (p & mask) * dimension * type;
+        if (type == DOUBLE) {
+            for (int d = 0; d < dimension; d++, offset += DOUBLE) {
+                point[d] = segment.getDouble(offset);
+            }
+        } else {
+            for (int d = 0; d < dimension; d++, offset += FLOAT) {
+                point[d] = segment.getFloat(offset);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void write(File file, double[][] points, int dimension, int type) throws IOException {
+        if (type != DOUBLE && type != FLOAT) {
+            throw new IllegalArgumentException("type must be DOUBLE or FLOAT");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(type).putLong(points.length).putInt(dimension).putInt(0);
+            for (double[] point : points) {
+                if (buffer.remaining() < dimension * type) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                for (int d = 0; d < dimension; d++) {
+                    double v = d < point.length ? point[d] : 0d;
+                    if (type == DOUBLE) {
+                        buffer.putDouble(v);
+                    } else {
+                        buffer.putFloat((float) v);
+                    }
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package ca.pjer.ekmeans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+public class ShardedDoubleEKmeans {
+
+    public interface Shard {
+
+        int count() throws IOException;
+
+        Partial step(double[][] centroids, int[] quotas) throws IOException;
+
+        int[] assignments() throws IOException;
+
+    }
+
+    public static class Partial {
+
+        public final double[][] sums;
+        public final int[] counts;
+        public final int[] demands;
+        public final int moves;
+        public final double inertia;
+
+        public Partial(double[][] sums, int[] counts, int[] demands, int moves, double inertia) {
+            this.sums = sums;
+            this.counts = counts;
+            this.demands = demands;
+            this.moves = moves;
+            this.inertia = inertia;
+        }
+    }
+
+    public static class Worker {
+
+        private final Lloyd lloyd;
+
+        public Worker(double[][] points, DoubleEKmeans.DoubleDistanceFunction doubleDistanceFunction) {
+            lloyd = new Lloyd(points, doubleDistanceFunction);
+        }
+
+        public int count() {
+            return lloyd.points.length;
+        }
+
+        public int[] assignments() {
+            return lloyd.assignments;
+        }
+
+        public Partial step(double[][] centroids, int[] quotas) {
+            int moves = lloyd.step(centroids, quotas);
+            return new Partial(lloyd.sums, lloyd.counts, lloyd.demands, moves, lloyd.inertia);
+        }
+    }
+
+    public static class LocalShard implements Shard {
+
+        private final Worker worker;
+
+        public LocalShard(Worker worker) {
+            this.worker = worker;
+        }
+
+        public int count() {
+            return worker.count();
+        }
+
+        public Partial step(double[][] centroids, int[] quotas) {
+            return worker.step(centroids, quotas);
+        }
+
+        public int[] assignments() {
+            return worker.assignments().clone();
+        }
+    }
+
+    protected final double[][] centroids;
+    protected final Shard[] shards;
+    protected final boolean equal;
+    protected final AbstractEKmeans.Listener listener;
+    protected final ExecutorService executorService;
+
+    protected final int k;
+    protected int[] sizes;
+    protected int n;
+    protected double inertia = Double.NaN;
+
+    public ShardedDoubleEKmeans(double[][] centroids, Shard[] shards, boolean equal, AbstractEKmeans.Listener listener, ExecutorService executorService) {
+        this.centroids = centroids;
+        this.shards = shards;
+        this.equal = equal;
+        this.listener = listener;
+        this.executorService = executorService;
+        this.k = centroids.length;
+    }
+
+    public double getInertia() {
+        return inertia;
+    }
+
+    public int[][] run(int iteration) throws IOException {
+        sizes = new int[shards.length];
+        n = 0;
+        for (int s = 0; s < shards.length; s++) {
+            sizes[s] = shards[s].count();
+            n += sizes[s];
+        }
+        int[][] quotas = new int[shards.length][];
+        Partial[] partials = step(quotas);
+        for (int i = 1; i <= iteration; i++) {
+            if (equal) {
+                quotas = reconcile(partials);
+            }
+            moveCentroids(partials);
+            partials = step(quotas);
+            int move = 0;
+            for (Partial partial : partials) {
+                move += partial.moves;
+            }
+            if (listener != null) {
+                listener.iteration(i, move);
+            }
+            if (move == 0) {
+                break;
+            }
+        }
+        inertia = 0;
+        for (Partial partial : partials) {
+            inertia += partial.inertia;
+        }
+        int[][] assignments = new int[shards.length][];
+        for (int s = 0; s < shards.length; s++) {
+            assignments[s] = shards[s].assignments();
+        }
+        return assignments;
+    }
+
+    protected int[][] reconcile(Partial[] partials) {
+        int[] capacities = new int[k];
+        int ideal = k > 0 ? n / k : 0;
+        for (int c = 0; c < k; c++) {
+            capacities[c] = ideal + (c < n - ideal * k ? 1 : 0);
+        }
+        int[] demands = new int[k];
+        for (Partial partial : partials) {
+            for (int c = 0; c < k; c++) {
+                demands[c] += partial.demands[c];
+            }
+        }
+        int[][] quotas = new int[shards.length][k];
+        int[] rows = sizes.clone();
+        int[] columns = capacities.clone();
+        for (int s = 0; s < shards.length; s++) {
+            for (int c = 0; c < k; c++) {
+                if (demands[c] == 0) continue;
+                int q = (int) ((long) capacities[c] * partials[s].demands[c] / demands[c]);
+                q = Math.min(q, Math.min(rows[s], columns[c]));
+                quotas[s][c] = q;
+                rows[s] -= q;
+                columns[c] -= q;
+            }
+        }
+        // the leftovers go first to the largest remainders, then to the shards that want the cluster most
+        int size = shards.length * k;
+        double[] keys = new double[size];
+        int[] order = new int[size];
+        for (int s = 0; s < shards.length; s++) {
+            for (int c = 0; c < k; c++) {
+                int i = s * k + c;
+                keys[i] = demands[c] == 0 ? 0 : (double) ((long) capacities[c] * partials[s].demands[c] % demands[c]) / demands[c];
+                order[i] = i;
+            }
+        }
+        Parallel.sort(keys, order, size);
+        for (int i = 0; i < size; i++) {
+            int s = order[i] / k;
+            int c = order[i] % k;
+            if (keys[order[i]] > 0 && rows[s] > 0 && columns[c] > 0) {
+                quotas[s][c]++;
+                rows[s]--;
+                columns[c]--;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            keys[i] = partials[i / k].demands[i % k];
+            order[i] = i;
+        }
+        Parallel.sort(keys, order, size);
+        for (int i = 0; i < size; i++) {
+            int s = order[i] / k;
+            int c = order[i] % k;
+            int q = Math.min(rows[s], columns[c]);
+            quotas[s][c] += q;
+            rows[s] -= q;
+            columns[c] -= q;
+        }
+        return quotas;
+    }
+
+    protected void moveCentroids(Partial[] partials) {
+        // empty clusters keep their centroid (there is no refill as in AbstractEKmeans), and summing
+        // per-shard partials rounds differently, so results can drift from a single-process DoubleEKmeans run
+        for (int c = 0; c < k; c++) {
+            int count = 0;
+            for (Partial partial : partials) {
+                count += partial.counts[c];
+            }
+            if (count == 0) continue;
+            double[] centroid = centroids[c];
+            Arrays.fill(centroid, 0d);
+            for (Partial partial : partials) {
+                double[] sum = partial.sums[c];
+                for (int d = 0; d < centroid.length && d < sum.length; d++) {
+                    centroid[d] += sum[d];
+                }
+            }
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] /= count;
+            }
+        }
+    }
+
+    protected Partial[] step(final int[][] quotas) throws IOException {
+        final Partial[] partials = new Partial[shards.length];
+        if (executorService == null) {
+            for (int s = 0; s < shards.length; s++) {
+                partials[s] = shards[s].step(centroids, quotas[s]);
+            }
+            return partials;
+        }
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int s = 0; s < shards.length; s++) {
+            final int fs = s;
+            tasks.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    partials[fs] = shards[fs].step(centroids, quotas[fs]);
+                    return null;
+                }
+            });
+        }
+        Parallel.invokeIO(executorService, tasks);
+        return partials;
+    }
+}
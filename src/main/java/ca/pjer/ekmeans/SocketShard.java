@@ -0,0 +1,190 @@
+package ca.pjer.ekmeans;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+public class SocketShard implements ShardedDoubleEKmeans.Shard, Closeable {
+
+    private static final int COUNT = 1;
+    private static final int STEP = 2;
+    private static final int ASSIGNMENTS = 3;
+    private static final int CLOSE = 4;
+
+    public static class Server implements Runnable, Closeable {
+
+        private final ServerSocket serverSocket;
+        private final ShardedDoubleEKmeans.Worker worker;
+        private volatile Exception failure;
+
+        public Server(ServerSocket serverSocket, ShardedDoubleEKmeans.Worker worker) {
+            this.serverSocket = serverSocket;
+            this.worker = worker;
+        }
+
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        // the last error that ended a client connection, or the accept loop, if any
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        failure = e;
+                    }
+                    return;
+                }
+                try {
+                    serve(socket);
+                } catch (EOFException ignore) {
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int op = in.readInt();
+                if (op == COUNT) {
+                    out.writeInt(worker.count());
+                } else if (op == STEP) {
+                    int k = in.readInt();
+                    int dimension = in.readInt();
+                    double[][] centroids = new double[k][dimension];
+                    for (double[] centroid : centroids) {
+                        for (int d = 0; d < dimension; d++) {
+                            centroid[d] = in.readDouble();
+                        }
+                    }
+                    int[] quotas = null;
+                    if (in.readBoolean()) {
+                        quotas = new int[k];
+                        for (int c = 0; c < k; c++) {
+                            quotas[c] = in.readInt();
+                        }
+                    }
+                    ShardedDoubleEKmeans.Partial partial = worker.step(centroids, quotas);
+                    out.writeInt(partial.moves);
+                    out.writeDouble(partial.inertia);
+                    for (int c = 0; c < k; c++) {
+                        out.writeInt(partial.counts[c]);
+                        out.writeInt(partial.demands[c]);
+                        for (int d = 0; d < dimension; d++) {
+                            out.writeDouble(partial.sums[c][d]);
+                        }
+                    }
+                } else if (op == ASSIGNMENTS) {
+                    int[] assignments = worker.assignments();
+                    out.writeInt(assignments.length);
+                    for (int assignment : assignments) {
+                        out.writeInt(assignment);
+                    }
+                } else if (op == CLOSE) {
+                    out.flush();
+                    return;
+                } else {
+                    throw new IOException("unknown shard operation " + op);
+                }
+                out.flush();
+            }
+        }
+
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public SocketShard(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public synchronized int count() throws IOException {
+        out.writeInt(COUNT);
+        out.flush();
+        return in.readInt();
+    }
+
+    public synchronized ShardedDoubleEKmeans.Partial step(double[][] centroids, int[] quotas) throws IOException {
+        int k = centroids.length;
+        int dimension = k > 0 ? centroids[0].length : 0;
+        out.writeInt(STEP);
+        out.writeInt(k);
+        out.writeInt(dimension);
+        for (double[] centroid : centroids) {
+            for (int d = 0; d < dimension; d++) {
+                out.writeDouble(centroid[d]);
+            }
+        }
+        out.writeBoolean(quotas != null);
+        if (quotas != null) {
+            for (int c = 0; c < k; c++) {
+                out.writeInt(quotas[c]);
+            }
+        }
+        out.flush();
+        int moves = in.readInt();
+        double inertia = in.readDouble();
+        int[] counts = new int[k];
+        int[] demands = new int[k];
+        double[][] sums = new double[k][dimension];
+        for (int c = 0; c < k; c++) {
+            counts[c] = in.readInt();
+            demands[c] = in.readInt();
+            for (int d = 0; d < dimension; d++) {
+                sums[c][d] = in.readDouble();
+            }
+        }
+        return new ShardedDoubleEKmeans.Partial(sums, counts, demands, moves, inertia);
+    }
+
+    public synchronized int[] assignments() throws IOException {
+        out.writeInt(ASSIGNMENTS);
+        out.flush();
+        int[] assignments = new int[in.readInt()];
+        for (int p = 0; p < assignments.length; p++) {
+            assignments[p] = in.readInt();
+        }
+        return assignments;
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            out.writeInt(CLOSE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
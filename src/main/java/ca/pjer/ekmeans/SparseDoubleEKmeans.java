@@ -0,0 +1,160 @@
+package ca.pjer.ekmeans;
+
+import java.util.Arrays;
+
+public class SparseDoubleEKmeans extends AbstractEKmeans<Void, Void> {
+
+    protected final double[][] sparseCentroids;
+    protected final int[] offsets;
+    protected final int[] indices;
+    protected final double[] values;
+    protected final boolean squared;
+
+    protected final double[] centroidNorms;
+    protected final double[] pointNorms;
+    protected final int[] sizes;
+    protected double[][] snapshots;
+
+    public SparseDoubleEKmeans(double[][] centroids, int[] offsets, int[] indices, double[] values, boolean equal, Listener listener) {
+        this(centroids, offsets, indices, values, equal, true, false, listener);
+    }
+
+    public SparseDoubleEKmeans(double[][] centroids, int[] offsets, int[] indices, double[] values, boolean equal, boolean table, boolean squared, Listener listener) {
+        super(centroids.length, offsets.length - 1, equal, table, listener);
+        this.sparseCentroids = centroids;
+        this.offsets = offsets;
+        this.indices = indices;
+        this.values = values;
+        this.squared = squared;
+        centroidNorms = new double[k];
+        for (int c = 0; c < k; c++) {
+            centroidNorms[c] = norm(centroids[c]);
+        }
+        pointNorms = new double[n];
+        for (int p = 0; p < n; p++) {
+            double s = 0;
+            for (int j = offsets[p]; j < offsets[p + 1]; j++) {
+                s += values[j] * values[j];
+            }
+            pointNorms[p] = s;
+        }
+        sizes = new int[k];
+    }
+
+    public static double[][] densify(int[] offsets, int[] indices, double[] values, int[] rows, int dimension) {
+        double[][] dense = new double[rows.length][dimension];
+        for (int r = 0; r < rows.length; r++) {
+            for (int j = offsets[rows[r]]; j < offsets[rows[r] + 1]; j++) {
+                dense[r][indices[j]] = values[j];
+            }
+        }
+        return dense;
+    }
+
+    @Override
+    protected void calculateDistances() {
+        if (distances == null) {
+            super.calculateDistances();
+            return;
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            double[] row = distances[c];
+            for (int p = 0; p < n; p++) {
+                row[p] = sparseDistance(c, p);
+            }
+        }
+        Arrays.fill(changed, false);
+    }
+
+    @Override
+    protected double distance(int c, int p) {
+        if (distances == null) {
+            return sparseDistance(c, p);
+        }
+        return distances[c][p];
+    }
+
+    @Override
+    protected double cost(double distance) {
+        return squared ? distance : distance * distance;
+    }
+
+    protected double sparseDistance(int c, int p) {
+        double[] centroid = sparseCentroids[c];
+        double dot = 0;
+        for (int j = offsets[p], end = offsets[p + 1]; j < end; j++) {
+            dot += values[j] * centroid[indices[j]];
+        }
+        double s = Math.max(0d, centroidNorms[c] + pointNorms[p] - 2d * dot);
+        return squared ? s : Math.sqrt(s);
+    }
+
+    @Override
+    protected double moveCentroidsAndMeasure() {
+        if (snapshots == null) {
+            snapshots = new double[k][];
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            if (snapshots[c] == null) {
+                snapshots[c] = new double[sparseCentroids[c].length];
+            }
+            System.arraycopy(sparseCentroids[c], 0, snapshots[c], 0, sparseCentroids[c].length);
+        }
+        moveCentroids();
+        double max = 0;
+        for (int c = 0; c < k; c++) {
+            if (!changed[c]) continue;
+            double[] centroid = sparseCentroids[c];
+            double s = 0;
+            for (int d = 0; d < centroid.length; d++) {
+                double v = centroid[d] - snapshots[c][d];
+                s += v * v;
+            }
+            max = Math.max(max, squared ? s : Math.sqrt(s));
+        }
+        return max;
+    }
+
+    @Override
+    protected void moveCentroids() {
+        Arrays.fill(sizes, 0);
+        for (int p = 0; p < n; p++) {
+            int c = assignments[p];
+            if (c != -1 && changed[c]) {
+                sizes[c] += weight(p);
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            if (changed[c] && sizes[c] > 0) {
+                Arrays.fill(sparseCentroids[c], 0d);
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            int c = assignments[p];
+            if (c == -1 || !changed[c]) continue;
+            double[] centroid = sparseCentroids[c];
+            int w = weight(p);
+            for (int j = offsets[p], end = offsets[p + 1]; j < end; j++) {
+                centroid[indices[j]] += w * values[j];
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            if (!changed[c] || sizes[c] == 0) continue;
+            double[] centroid = sparseCentroids[c];
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] /= sizes[c];
+            }
+            centroidNorms[c] = norm(centroid);
+        }
+    }
+
+    private static double norm(double[] centroid) {
+        double s = 0;
+        for (double v : centroid) {
+            s += v * v;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,110 @@
+package ca.pjer.ekmeans;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DoubleEKmeansWorkspaceTest {
+
+    private static final int K = 5;
+    private static final int ITERATION = 50;
+    private static final int WARMUP = 20;
+
+    @Test
+    public void runDoesNotAllocateAfterWarmup() {
+        for (boolean equal : new boolean[]{false, true}) {
+            for (boolean table : new boolean[]{false, true}) {
+                double[][] points = points(1000, 1);
+                double[][] seeds = seeds(points);
+                double[][] centroids = new double[K][2];
+                int[] assignments = new int[points.length];
+                DoubleEKmeansWorkspace workspace = new DoubleEKmeansWorkspace(equal, table, DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION, null);
+                for (int i = 0; i < WARMUP; i++) {
+                    run(workspace, seeds, centroids, points, assignments);
+                }
+                assertEquals("equal=" + equal + " table=" + table, 0, allocated(workspace, seeds, centroids, points, assignments));
+            }
+        }
+    }
+
+    @Test
+    public void resetAfterRebindingDoesNotAllocate() {
+        double[][] large = points(2000, 2);
+        double[][] small = points(700, 3);
+        double[][] largeSeeds = seeds(large);
+        double[][] smallSeeds = seeds(small);
+        double[][] centroids = new double[K][2];
+        int[] assignments = new int[large.length];
+        DoubleEKmeansWorkspace workspace = new DoubleEKmeansWorkspace(true, false, DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION, null);
+        for (int i = 0; i < WARMUP; i++) {
+            run(workspace, largeSeeds, centroids, large, assignments);
+            run(workspace, smallSeeds, centroids, small, assignments);
+        }
+        assertEquals(0, allocated(workspace, smallSeeds, centroids, small, assignments));
+        assertEquals(0, allocated(workspace, largeSeeds, centroids, large, assignments));
+        assertEquals(0, allocated(workspace, smallSeeds, centroids, small, assignments));
+    }
+
+    @Test
+    public void resetAfterRebindingMatchesAFreshWorkspace() {
+        double[][] large = points(2000, 2);
+        double[][] small = points(700, 3);
+        double[][] centroids = new double[K][2];
+        int[] assignments = new int[large.length];
+        DoubleEKmeansWorkspace workspace = new DoubleEKmeansWorkspace(true, false, DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION, null);
+        run(workspace, seeds(large), centroids, large, assignments);
+        assertEquals(small.length, run(workspace, seeds(small), centroids, small, assignments));
+
+        double[][] freshCentroids = new double[K][2];
+        int[] freshAssignments = new int[small.length];
+        DoubleEKmeansWorkspace fresh = new DoubleEKmeansWorkspace(true, false, DoubleEKmeans.EUCLIDEAN_DISTANCE_FUNCTION, null);
+        run(fresh, seeds(small), freshCentroids, small, freshAssignments);
+
+        int[] rebound = new int[small.length];
+        System.arraycopy(assignments, 0, rebound, 0, small.length);
+        assertArrayEquals(freshAssignments, rebound);
+        for (int c = 0; c < K; c++) {
+            assertArrayEquals(freshCentroids[c], centroids[c], 0d);
+        }
+    }
+
+    private static long allocated(DoubleEKmeansWorkspace workspace, double[][] seeds, double[][] centroids, double[][] points, int[] assignments) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long id = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(id);
+        run(workspace, seeds, centroids, points, assignments);
+        return bean.getThreadAllocatedBytes(id) - before;
+    }
+
+    private static int run(DoubleEKmeansWorkspace workspace, double[][] seeds, double[][] centroids, double[][] points, int[] assignments) {
+        for (int c = 0; c < K; c++) {
+            System.arraycopy(seeds[c], 0, centroids[c], 0, seeds[c].length);
+        }
+        workspace.reset(centroids, points);
+        return workspace.run(ITERATION, assignments);
+    }
+
+    private static double[][] points(int n, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[n][2];
+        for (double[] point : points) {
+            point[0] = random.nextDouble();
+            point[1] = random.nextDouble();
+        }
+        return points;
+    }
+
+    private static double[][] seeds(double[][] points) {
+        double[][] seeds = new double[K][];
+        for (int c = 0; c < K; c++) {
+            seeds[c] = points[c * (points.length / K)].clone();
+        }
+        return seeds;
+    }
+}